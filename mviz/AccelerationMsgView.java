@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+
+/**
+ * Reusable view over the payload of a message of type acceleration_msg_t
+ * (see Network.h): fields are read straight from the bytes of the packet,
+ * as primitive values, so decoding a message doesn't allocate anything.
+ * 
+ * The layout follows the nx_struct in Network.h, where all the fields are
+ * big-endian:
+ * 
+ * x_acceleration (int16) | y_acceleration (int16) | z_acceleration (int16) |
+ * message_path (uint16 * NUMBER_OF_MOTES) | path_quality (uint16 * NUMBER_OF_MOTES) |
+ * hopcount (uint16)
+ * 
+ * @author user
+ */
+
+public class AccelerationMsgView {
+
+	/**
+	 * NUMBER_OF_MOTES in Network.h
+	 */
+
+	static final int NUMBER_OF_MOTES = 4;
+
+	/**
+	 * Offsets of the fields w.r.t. the start of the payload
+	 */
+
+	static final int X_ACCELERATION = 0;
+	static final int Y_ACCELERATION = 2;
+	static final int Z_ACCELERATION = 4;
+	static final int MESSAGE_PATH = 6;
+	static final int PATH_QUALITY = MESSAGE_PATH + 2 * NUMBER_OF_MOTES;
+	static final int HOPCOUNT = PATH_QUALITY + 2 * NUMBER_OF_MOTES;
+
+	/**
+	 * Size of the payload
+	 */
+
+	static final int SIZE = HOPCOUNT + 2;
+
+	/**
+	 * Header of a serial packet carrying an active message: dispatch byte
+	 * (0 for active messages) followed by destination (2 bytes), source (2
+	 * bytes), length of the payload, group and type
+	 */
+
+	static final int SERIAL_HEADER_SIZE = 8;
+	static final int SERIAL_ACTIVE_MESSAGE_ID = 0;
+	static final int SERIAL_LENGTH = 5;
+	static final int SERIAL_TYPE = 7;
+
+	/**
+	 * AM_ACCELERATION_MSG in Network.h
+	 */
+
+	static final int AM_ACCELERATION_MSG = 30;
+
+	private byte[] data;
+	private int base;
+
+	/**
+	 * Point the view to a payload starting at the given offset of the given
+	 * array; returns false if the array is too short to hold it
+	 */
+
+	public boolean wrap(byte[] data, int offset) {
+		this.data = data;
+		this.base = offset;
+		return data != null && offset >= 0 && data.length - offset >= SIZE;
+	}
+
+	/**
+	 * Point the view to the payload of a raw serial packet (as read from the
+	 * serial port or from a serial forwarder) of the given length; returns
+	 * false if the packet doesn't carry an acceleration message
+	 */
+
+	public boolean wrapSerialPacket(byte[] data, int offset, int length) {
+		if (length < SERIAL_HEADER_SIZE + SIZE
+				|| data[offset] != SERIAL_ACTIVE_MESSAGE_ID
+				|| (data[offset + SERIAL_TYPE] & 0xff) != AM_ACCELERATION_MSG
+				|| (data[offset + SERIAL_LENGTH] & 0xff) < SIZE)
+			return false;
+		return wrap(data, offset + SERIAL_HEADER_SIZE);
+	}
+
+	public short getXAcceleration() {
+		return getShort(X_ACCELERATION);
+	}
+
+	public short getYAcceleration() {
+		return getShort(Y_ACCELERATION);
+	}
+
+	public short getZAcceleration() {
+		return getShort(Z_ACCELERATION);
+	}
+
+	/**
+	 * Number of motes along the path, root excluded
+	 */
+
+	public int getHopcount() {
+		return getUnsignedShort(HOPCOUNT);
+	}
+
+	/**
+	 * ID of the i-th mote along the path: the first one is the origin of the
+	 * message
+	 */
+
+	public int getMessagePath(int i) {
+		return getUnsignedShort(MESSAGE_PATH + 2 * i);
+	}
+
+	/**
+	 * Quality of the link from the i-th mote along the path to its parent
+	 */
+
+	public int getPathQuality(int i) {
+		return getUnsignedShort(PATH_QUALITY + 2 * i);
+	}
+
+	/**
+	 * Copy all the elements of message_path into the given array, which must
+	 * hold at least NUMBER_OF_MOTES elements
+	 */
+
+	public void getMessagePath(int[] path) {
+		for (int i = 0; i < NUMBER_OF_MOTES; i++)
+			path[i] = getMessagePath(i);
+	}
+
+	private short getShort(int offset) {
+		int i = base + offset;
+		return (short) ((data[i] << 8) | (data[i + 1] & 0xff));
+	}
+
+	private int getUnsignedShort(int offset) {
+		int i = base + offset;
+		return ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff);
+	}
+}
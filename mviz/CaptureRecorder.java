@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.io.*;
+
+import net.tinyos.packet.*;
+
+/**
+ * Record every raw packet delivered by the source of MessageInput to a
+ * capture file, which can be played back later by CaptureReplay.
+ * 
+ * The capture file starts with a header:
+ * 
+ * magic (int) | version (short) | wall clock time of the start of the capture in ms (long)
+ * 
+ * followed by one record for each packet:
+ * 
+ * time since previous packet in us (varint) | length (varint) | bytes of the packet
+ * 
+ * Times are taken from the monotonic clock of the JVM. Besides the capture
+ * file, a sparse index ("file.idx") is written with one entry about every
+ * second of capture: time since the start of the capture in us (long) |
+ * offset of the record in the capture file (long). The index is used to seek
+ * to a given time without reading the whole capture.
+ * 
+ * @author user
+ */
+
+public class CaptureRecorder implements PacketListenerIF {
+
+	static final int MAGIC = 0x4d564341;
+	static final short VERSION = 1;
+	static final int HEADER_SIZE = 14;
+	static final String INDEX_SUFFIX = ".idx";
+
+	/**
+	 * Interval between two entries of the index, in us
+	 */
+
+	static final long INDEX_INTERVAL = 1000000;
+
+	private final DataOutputStream capture;
+	private final DataOutputStream index;
+
+	/**
+	 * Monotonic time of the start of the capture, in ns
+	 */
+
+	private final long start;
+
+	/**
+	 * Time of the last packet and of the last index entry, in us since the
+	 * start of the capture
+	 */
+
+	private long lastTime;
+	private long lastIndexTime = -INDEX_INTERVAL;
+
+	/**
+	 * Number of bytes written to the capture file
+	 */
+
+	private long offset;
+	private boolean closed;
+
+	public CaptureRecorder(File file) throws IOException {
+		capture = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 65536));
+		index = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file.getPath() + INDEX_SUFFIX)));
+		start = System.nanoTime();
+		capture.writeInt(MAGIC);
+		capture.writeShort(VERSION);
+		capture.writeLong(System.currentTimeMillis());
+		offset = HEADER_SIZE;
+	}
+
+	/**
+	 * Called by the PhoenixSource for each packet received
+	 */
+
+	public synchronized void packetReceived(byte[] packet) {
+		if (closed)
+			return;
+		try {
+			long time = Math.max(lastTime, (System.nanoTime() - start) / 1000);
+
+			/**
+			 * Push the data to the disk once per interval, so that at most
+			 * one interval is lost on a crash, then add an index entry. The
+			 * capture is pushed before the index and the new entry is
+			 * pushed only with the next interval, after the record it
+			 * points to: the index never points past the end of the capture
+			 */
+
+			if (time - lastIndexTime >= INDEX_INTERVAL) {
+				capture.flush();
+				index.flush();
+				index.writeLong(time);
+				index.writeLong(offset);
+				lastIndexTime = time;
+			}
+			offset += writeVarint(time - lastTime);
+			offset += writeVarint(packet.length);
+			capture.write(packet);
+			offset += packet.length;
+			lastTime = time;
+		} catch (IOException ex) {
+			System.out.println("Exception:" + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Write a non negative value using 7 bits per byte, least significant
+	 * first; the highest bit tells if more bytes follow. Returns the number
+	 * of bytes written
+	 */
+
+	private int writeVarint(long value) throws IOException {
+		int n = 1;
+		while (value >= 0x80) {
+			capture.write((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+			n++;
+		}
+		capture.write((int) value);
+		return n;
+	}
+
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			capture.close();
+			index.close();
+		} catch (IOException ex) {
+			System.out.println("Exception:" + ex.getMessage());
+		}
+	}
+}
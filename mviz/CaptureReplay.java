@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+import net.tinyos.packet.*;
+import net.tinyos.util.*;
+
+/**
+ * Play back a capture file written by CaptureRecorder: it's a PacketSource,
+ * so packets go through PhoenixSource and MoteIF to
+ * MessageInput.messageReceived as if they were coming from the motes.
+ * 
+ * The replay is selected with a source like
+ * 
+ * replay@lecture.cap,speed=4,seek=600
+ * 
+ * where the options (all optional) are:
+ * - speed: how many times faster than real time packets are delivered
+ *   (1 by default), or "max" to deliver them as fast as possible
+ * - seek: second of the capture where to start
+ * 
+ * @author user
+ */
+
+public class CaptureReplay implements PacketSource {
+
+	/**
+	 * Prefix of the sources handled by this class
+	 */
+
+	static final String PREFIX = "replay@";
+
+	private final String name;
+	private final File file;
+
+	/**
+	 * Speed of the replay; 0 stands for "as fast as possible"
+	 */
+
+	private final double speed;
+	private final long initialSeek;
+
+	/**
+	 * The sparse index: times (us since the start of the capture) and
+	 * offsets of the indexed records
+	 */
+
+	private long[] indexTimes;
+	private long[] indexOffsets;
+	private int indexSize;
+
+	private FileInputStream input;
+	private FileChannel channel;
+	private DataInputStream capture;
+
+	/**
+	 * Time of the last packet read, in us since the start of the capture
+	 */
+
+	private long time;
+
+	/**
+	 * Time of the capture and monotonic time (ns) when the replay started
+	 * or was last moved with seek()
+	 */
+
+	private long baseTime;
+	private long baseNanos;
+
+	/**
+	 * Packet read while seeking, to be delivered first
+	 */
+
+	private byte[] nextPacket;
+
+	public CaptureReplay(String options) {
+		if (options.startsWith(PREFIX))
+			options = options.substring(PREFIX.length());
+		name = PREFIX + options;
+		StringTokenizer tokens = new StringTokenizer(options, ",");
+		file = new File(tokens.nextToken().trim());
+		double speed = 1;
+		long seek = 0;
+		while (tokens.hasMoreTokens()) {
+			String token = tokens.nextToken().trim();
+			if (token.startsWith("speed=")) {
+				String value = token.substring(6);
+				speed = value.equals("max") ? 0 : Double.parseDouble(value);
+			} else if (token.startsWith("seek=")) {
+				seek = (long) (Double.parseDouble(token.substring(5)) * 1000000);
+			}
+		}
+		this.speed = speed;
+		this.initialSeek = seek;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized void open(Messenger messages) throws IOException {
+		input = new FileInputStream(file);
+		channel = input.getChannel();
+		capture = new DataInputStream(new BufferedInputStream(input, 65536));
+		if (capture.readInt() != CaptureRecorder.MAGIC
+				|| capture.readShort() != CaptureRecorder.VERSION)
+			throw new IOException(file + " is not a capture file");
+		long startMillis = capture.readLong();
+		loadIndex();
+		messages.message(name + ": capture of " + new Date(startMillis));
+		seek(initialSeek);
+	}
+
+	/**
+	 * Load the index, if present
+	 */
+
+	private void loadIndex() throws IOException {
+		indexTimes = new long[64];
+		indexOffsets = new long[64];
+		indexSize = 0;
+		File indexFile = new File(file.getPath() + CaptureRecorder.INDEX_SUFFIX);
+		if (!indexFile.exists())
+			return;
+		DataInputStream index = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(indexFile)));
+		try {
+			long entries = indexFile.length() / 16;
+			for (long i = 0; i < entries; i++) {
+				if (indexSize == indexTimes.length) {
+					indexTimes = Arrays.copyOf(indexTimes, indexSize * 2);
+					indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+				}
+				indexTimes[indexSize] = index.readLong();
+				indexOffsets[indexSize] = index.readLong();
+				indexSize++;
+			}
+		} finally {
+			index.close();
+		}
+	}
+
+	/**
+	 * Move the replay to the given time (us since the start of the
+	 * capture): start from the closest index entry before it and skip the
+	 * packets until that time
+	 */
+
+	public synchronized void seek(long target) throws IOException {
+		long offset = CaptureRecorder.HEADER_SIZE;
+		long start = 0;
+		int entry = Arrays.binarySearch(indexTimes, 0, indexSize, target);
+		if (entry < 0)
+			entry = -entry - 2;
+		if (entry >= 0) {
+			offset = indexOffsets[entry];
+			start = indexTimes[entry];
+		}
+		channel.position(offset);
+		capture = new DataInputStream(new BufferedInputStream(input, 65536));
+
+		/**
+		 * The time of an indexed record is the one in the index, not the
+		 * one computed from its delta
+		 */
+
+		nextPacket = null;
+		time = start;
+		boolean indexed = entry >= 0;
+		byte[] packet;
+		while ((packet = read()) != null) {
+			if (indexed) {
+				time = start;
+				indexed = false;
+			}
+			if (time >= target) {
+				nextPacket = packet;
+				break;
+			}
+		}
+		baseTime = nextPacket != null ? time : target;
+		baseNanos = System.nanoTime();
+	}
+
+	/**
+	 * Read the next record; returns null at the end of the capture
+	 */
+
+	private byte[] read() throws IOException {
+		long delta;
+		try {
+			delta = readVarint();
+		} catch (EOFException e) {
+			return null;
+		}
+		byte[] packet = new byte[(int) readVarint()];
+		capture.readFully(packet);
+		time += delta;
+		return packet;
+	}
+
+	private long readVarint() throws IOException {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = capture.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * Return the next packet of the capture when its time has come
+	 */
+
+	public byte[] readPacket() throws IOException {
+		byte[] packet;
+		long wait;
+		synchronized (this) {
+			if (capture == null)
+				throw new IOException(name + " closed");
+			packet = nextPacket;
+			nextPacket = null;
+			if (packet == null)
+				packet = read();
+			if (packet == null)
+				throw new IOException(name + ": end of capture");
+			wait = speed > 0 ? baseNanos
+					+ (long) ((time - baseTime) * 1000 / speed)
+					- System.nanoTime() : 0;
+		}
+		if (wait > 0)
+			LockSupport.parkNanos(wait);
+		return packet;
+	}
+
+	public synchronized void close() throws IOException {
+		if (input != null) {
+			input.close();
+			input = null;
+			capture = null;
+		}
+	}
+
+	/**
+	 * Packets can't be sent to a capture
+	 */
+
+	public boolean writePacket(byte[] packet) throws IOException {
+		return false;
+	}
+}
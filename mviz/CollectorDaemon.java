@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Headless collector: reads the packets from the source, decodes them,
+ * keeps the values in the local spool and uploads them to Parse, all
+ * configured by "config.properties" alone; AWT and Swing are never loaded,
+ * so it runs on gateways without a display and with a small heap, e.g.
+ * 
+ * java -Djava.awt.headless=true -Xmx32m net.tinyos.mviz.CollectorDaemon
+ * 
+ * If "viewerPort" is set, the packets received are also relayed on that
+ * TCP port with the protocol of the serial forwarder (see LocalForwarder):
+ * a GUI attaches as a viewer with "source=nio@GATEWAY:PORT" and
+ * "upload=false", since values are already uploaded by the daemon.
+ * 
+ * The helpers reading the configuration are shared with DDocument.
+ * 
+ * @author user
+ */
+
+public class CollectorDaemon {
+
+	/**
+	 * Milliseconds between two reports of the state of the upload
+	 */
+
+	private static final long STATUS_INTERVAL = 60000;
+
+	public static void main(String[] args) throws IOException {
+
+		/**
+		 * Nothing here needs AWT: make sure that, if some library asks for
+		 * it, no display is looked for
+		 */
+
+		System.setProperty("java.awt.headless", "true");
+		Properties properties = loadConfiguration();
+		int rootMote = Integer.parseInt(properties.getProperty("rootMote"));
+
+		ParseUploader uploader = createUploader(properties);
+		if (uploader == null) {
+			System.out.println("ERROR: nothing to do with \"upload=false\"");
+			System.exit(1);
+		}
+		MessageInput input = new MessageInput(getSource(properties), rootMote,
+				null, uploader);
+
+		CaptureRecorder recorder = createRecorder(properties);
+		if (recorder != null)
+			input.addPacketListener(recorder);
+
+		/**
+		 * Relay the packets to the GUIs attaching as viewers
+		 */
+
+		String viewerPort = properties.getProperty("viewerPort");
+		if (viewerPort != null && viewerPort.trim().length() > 0) {
+			LocalForwarder viewers = new LocalForwarder(Integer.parseInt(viewerPort.trim()));
+			viewers.start();
+			input.addPacketListener(viewers);
+			System.out.println("Viewers can attach to port " + viewers.getPort());
+		}
+
+		input.start();
+
+		/**
+		 * Report the state of the upload until the daemon is stopped
+		 */
+
+		while (true) {
+			try {
+				Thread.sleep(STATUS_INTERVAL);
+			} catch (InterruptedException ex) {
+				return;
+			}
+			System.out.println("Uploaded " + uploader.getUploaded()
+					+ ", failed " + uploader.getFailed() + ", rejected "
+					+ uploader.getRejected() + ", dropped "
+					+ uploader.getDropped() + ", pending "
+					+ uploader.getPending());
+		}
+	}
+
+	/**
+	 * Load "config.properties" from the current directory; exit if it
+	 * can't be read
+	 */
+
+	static Properties loadConfiguration() throws IOException {
+		Properties properties = new Properties();
+		try {
+			FileInputStream propertiesInputStream = new FileInputStream(
+					System.getProperty("user.dir") + "/config.properties");
+			try {
+				properties.load(propertiesInputStream);
+			} finally {
+				propertiesInputStream.close();
+			}
+		} catch (FileNotFoundException notFoundEx) {
+			System.out
+			.println("ERROR: could not find the file properties \"config.properties\"");
+			System.exit(1);
+		} catch (SecurityException secEx) {
+			System.out
+			.println("ERROR: denied access to the file properties \"config.properties\"");
+			System.exit(1);
+		}
+		return properties;
+	}
+
+	/**
+	 * Get the source of packets: if not set (null is returned), the one
+	 * defined by the environment variable MOTECOM is used; "sim@..." selects
+	 * a simulated network (see NetworkSimulator), "replay@..." a capture
+	 * file (see CaptureReplay) and "nio@..." one or more serial forwarders
+	 * read without MoteIF (see NioForwarderClient)
+	 */
+
+	static String getSource(Properties properties) {
+		String source = properties.getProperty("source");
+		if (source != null && source.trim().length() == 0)
+			source = null;
+		return source;
+	}
+
+	/**
+	 * Create the upload stage, unless "upload" is false (null is returned
+	 * then): values are kept in a spool made of "spoolSegments" files with
+	 * "spoolSegmentRecords" values each, inside the folder
+	 * "spoolDirectory", and sent to Parse in batches of at most
+	 * "uploadBatchSize" values or every "uploadBatchPeriod" milliseconds,
+	 * with no more than "uploadInFlight" requests waiting for a response;
+	 * values not uploaded during the last run are uploaded again, values
+	 * still queued are flushed when the application exits
+	 */
+
+	static ParseUploader createUploader(Properties properties) throws IOException {
+		if (!Boolean.parseBoolean(properties.getProperty("upload", "true").trim()))
+			return null;
+		UploadSpool spool = new UploadSpool(new File(properties.getProperty(
+				"spoolDirectory", "spool")),
+				Integer.parseInt(properties.getProperty("spoolSegments", "16")),
+				Integer.parseInt(properties.getProperty("spoolSegmentRecords", "4096")));
+		final ParseUploader uploader = new ParseUploader(
+				properties.getProperty("parsePostUrl"),
+				properties.getProperty("parseApplicationId"),
+				properties.getProperty("parseRESTApiKey"), spool,
+				Integer.parseInt(properties.getProperty("uploadBatchSize", "20")),
+				Long.parseLong(properties.getProperty("uploadBatchPeriod", "1000")),
+				Integer.parseInt(properties.getProperty("uploadInFlight", "2")));
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				uploader.stop();
+			}
+		});
+		return uploader;
+	}
+
+	/**
+	 * If a capture file is given by "capture", create the recorder of all
+	 * the packets received (see CaptureReplay to play them back), closed
+	 * when the application exits; null otherwise
+	 */
+
+	static CaptureRecorder createRecorder(Properties properties) throws IOException {
+		String capture = properties.getProperty("capture");
+		if (capture == null || capture.trim().length() == 0)
+			return null;
+		final CaptureRecorder recorder = new CaptureRecorder(new File(capture.trim()));
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				recorder.close();
+			}
+		});
+		return recorder;
+	}
+}
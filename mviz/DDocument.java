@@ -38,6 +38,8 @@ package net.tinyos.mviz;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.*;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.*;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -53,14 +55,6 @@ import javax.swing.event.TableModelListener;
 import javax.swing.table.*;
 import javax.swing.text.BadLocationException;
 
-/*
- * import classes to handle http requests
- */
-
-import org.apache.http.client.methods.*;
-import org.apache.http.impl.client.*;
-import org.json.*;
-
 /**
  * DDOCUMENT: ->This is the class which is actually invoked when executing the
  * script "tos-mviz"
@@ -80,7 +74,7 @@ extends JPanel
  * comprises only one method "actionPerformed" which is the basic event handler
  */
 
-implements TableModelListener {
+implements TableModelListener, TopologyListener, LayoutListener, MeasuresListener {
 
 	/**
 	 * the name of the Java classes, produced with "mig" tool, representing the
@@ -142,6 +136,12 @@ implements TableModelListener {
 
 	public Image hostImage;
 
+	/**
+	 * Images actually drawn on the canvas, prepared once
+	 */
+
+	SpriteCache sprites;
+
 	/**
 	 * Array of colors used to draw paths: since they are randomly
 	 * chosen, every time we draw a path we check that the color
@@ -169,22 +169,83 @@ implements TableModelListener {
 	 * one producer mote to the root of the network
 	 */
 
-	private PathsTableModel pathsTableModel;
+	PathsTableModel pathsTableModel;
 	private JTable pathsTable;
 
 	/**
 	 * SENSORS DATA TABLE ->components for the table with data from sensors
 	 */
 
-	protected Button measuresButton;
+	protected JButton measuresButton;
+	private JProgressBar measuresProgress;
 	private JTable measuresTable;
+
+	/**
+	 * Time allowed to a retrieval of measures from Parse, in milliseconds
+	 */
+
+	private int retrieveTimeout = MeasuresRetrieval.DEFAULT_TIMEOUT;
 	public int measuresTableWidth = 600;
 	public int measuresTableHeight = 600;
 
-	protected HashMap motes;
-	protected HashMap links;
+	/**
+	 * Models of the motes given their ID, and of the links given their
+	 * key (see LinkKey)
+	 */
+
+	protected IntObjectMap<DMoteModel> motes;
+	protected LongObjectMap<DLinkModel> links;
 	private MeasuresTableModel measuresTableModel;
 
+	/**
+	 * The last measures received or retrieved, shown by the Measures Table
+	 */
+
+	private final MeasuresBuffer measures = new MeasuresBuffer(MeasuresBuffer.DEFAULT_CAPACITY);
+
+	/**
+	 * The Measures Table is told about the measures added at most once per
+	 * frame, like the canvas is drawn (see measuresAdded)
+	 */
+
+	private RenderScheduler measuresScheduler;
+	private volatile boolean measuresScheduled;
+	private final Runnable refreshMeasures = new Runnable() {
+		public void run() {
+			measuresScheduled = false;
+			measuresScheduler.requestRender();
+		}
+	};
+
+	/**
+	 * The topology of the network shown by the GUI, the version of the
+	 * last snapshot shown and the task refreshing the GUI
+	 */
+
+	private TopologyModel topology;
+	private long shownVersion;
+	private volatile boolean refreshScheduled;
+	private final Runnable refreshTopology = new Runnable() {
+		public void run() {
+			refreshTopology();
+		}
+	};
+
+	/**
+	 * The layout moving the motes (null if motes stay where they're
+	 * placed), the version of the last positions shown and the task
+	 * moving the motes on the canvas
+	 */
+
+	private ForceLayout forceLayout;
+	private long shownLayoutVersion;
+	private volatile boolean layoutScheduled;
+	private final Runnable refreshLayout = new Runnable() {
+		public void run() {
+			refreshLayout();
+		}
+	};
+
 	/**
 	 * Coordinates for the shape representing the host
 	 */
@@ -269,47 +330,37 @@ implements TableModelListener {
 		} catch (Exception ignore) {
 		}
 
-		motes = new HashMap();
-		links = new HashMap();
-
 		/**
-		 * Load images to represent motes on the canvas
+		 * The canvas is redrawn at most DEFAULT_MAX_FPS times per second
+		 * (see setMaxFps)
 		 */
 
-		String imgName = directory + moteImg;
-		motesImage= Toolkit.getDefaultToolkit().getImage(imgName);
-
-		BufferedImage bimg;
-		try {
-
-			/**
-			 * Get dimensions of the motes image
-			 */
+		renderScheduler = new RenderScheduler(new Runnable() {
+			public void run() {
+				redrawCanvas();
+			}
+		}, RenderScheduler.DEFAULT_MAX_FPS);
 
-			bimg = ImageIO.read(new File(imgName));
-			motesImageDimension=new Dimension(bimg.getWidth(),bimg.getHeight());
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		motes = new IntObjectMap<DMoteModel>();
+		links = new LongObjectMap<DLinkModel>();
 
 		/**
-		 * Load images to represent host on the canvas
+		 * Load images to represent motes and host on the canvas: each
+		 * image is decoded once, then scaled and converted in the
+		 * sprites actually drawn
 		 */
 
-		imgName = directory + hostImg;
-		hostImage = Toolkit.getDefaultToolkit().getImage(imgName);
-
-		try {
-
-			/**
-			 * Get dimensions of the host image
-			 */
-
-			bimg = ImageIO.read(new File(imgName));
-			hostImageDimension=new Dimension(bimg.getWidth(),bimg.getHeight());
-		} catch (IOException e) {
-			e.printStackTrace();
+		BufferedImage moteImage = readImage(directory + moteImg);
+		if (moteImage != null) {
+			motesImage = moteImage;
+			motesImageDimension = new Dimension(moteImage.getWidth(), moteImage.getHeight());
+		}
+		BufferedImage hostImage = readImage(directory + hostImg);
+		if (hostImage != null) {
+			this.hostImage = hostImage;
+			hostImageDimension = new Dimension(hostImage.getWidth(), hostImage.getHeight());
 		}
+		sprites = new SpriteCache(moteImage, hostImage);
 
 		/**
 		 * CANVAS START
@@ -361,7 +412,7 @@ implements TableModelListener {
 
 		canvas.addComponentListener(new ComponentListener() {
 			public void componentResized(ComponentEvent e) {
-				redrawCanvas();
+				renderScheduler.requestRender();
 			}
 
 			public void componentHidden(ComponentEvent arg0) {
@@ -375,6 +426,43 @@ implements TableModelListener {
 			}
 		});
 
+		/**
+		 * Navigation on the canvas: the wheel zooms in and out around the
+		 * pointer, dragging moves the network shown and a double click
+		 * shows all the network
+		 */
+
+		MouseAdapter navigation = new MouseAdapter() {
+			private int lastX, lastY;
+
+			public void mousePressed(MouseEvent e) {
+				lastX = e.getX();
+				lastY = e.getY();
+			}
+
+			public void mouseDragged(MouseEvent e) {
+				viewport.pan(e.getX() - lastX, e.getY() - lastY);
+				lastX = e.getX();
+				lastY = e.getY();
+				viewChanged();
+			}
+
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2) {
+					viewport.fit(networkBounds(), canvas.getWidth(), canvas.getHeight());
+					viewChanged();
+				}
+			}
+
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				viewport.zoom(e.getX(), e.getY(), Math.pow(ZOOM_STEP, -e.getWheelRotation()));
+				viewChanged();
+			}
+		};
+		canvas.addMouseListener(navigation);
+		canvas.addMouseMotionListener(navigation);
+		canvas.addMouseWheelListener(navigation);
+
 		/**
 		 * CANVAS END
 		 */
@@ -488,7 +576,7 @@ implements TableModelListener {
 		 * from Parse
 		 */
 
-		measuresButton = new Button("Retrieve");
+		measuresButton = new JButton("Retrieve");
 
 		/**
 		 * Add the button to lateral control area of DDocument
@@ -496,6 +584,16 @@ implements TableModelListener {
 
 		retrieveMeasuresPanel.add(measuresButton);
 
+		/**
+		 * Add a progress bar, shown while measures are retrieved
+		 */
+
+		measuresProgress = new JProgressBar(0, 100);
+		measuresProgress.setStringPainted(true);
+		measuresProgress.setVisible(false);
+		retrieveMeasuresPanel.add(Box.createRigidArea(new Dimension(10,0)));
+		retrieveMeasuresPanel.add(measuresProgress);
+
 		west.add(retrieveMeasuresPanel);
 
 		/**
@@ -505,6 +603,12 @@ implements TableModelListener {
 		 */
 
 		measuresTableModel = new MeasuresTableModel();
+		measuresScheduler = new RenderScheduler(new Runnable() {
+			public void run() {
+				measuresTableModel.flushChanges();
+			}
+		}, RenderScheduler.DEFAULT_MAX_FPS);
+		measures.setListener(this);
 		measuresTable = new JTable(measuresTableModel);
 
 		/**
@@ -521,10 +625,12 @@ implements TableModelListener {
 		measuresTablePanel.setBorder(BorderFactory.createTitledBorder("Measures Table"));
 
 		/**
-		 * Make table sortable
+		 * The table is not sortable: it shows up to hundreds of thousands
+		 * of measures arriving live, newest first, and sorting them again
+		 * at each frame would cost much more than drawing the rows shown
 		 */
 
-		measuresTable.setAutoCreateRowSorter(true);
+		measuresTable.getColumnModel().getColumn(4).setCellRenderer(new CustomCellDateRenderer());
 
 		/**
 		 * Set the measuresTable as the listener for button events
@@ -608,35 +714,126 @@ implements TableModelListener {
 
 		motesTablePanel.add(motesScroller);
 		west.add(motesTablePanel);
+	}
 
-		/**
-		 * Enable events defined by the mask given as a parameter
-		 * to be delivered to DDocument. We defined this mask as
-		 * the max id reserved for ATWEvents+1 for LinkSetEvent.
-		 * With this method calls, the two events below are delivered
-		 * to DDocument (method "processEvent" even though it is not
-		 * registered as a listener.
-		 */
+	/**
+	 * Max number of times per second the canvas is redrawn
+	 */
+
+	public void setMaxFps(int maxFps) {
+		renderScheduler.setMaxFps(maxFps);
+		measuresScheduler.setMaxFps(maxFps);
+	}
+
+	/**
+	 * Time allowed to a retrieval of measures from Parse, in milliseconds
+	 */
 
-		enableEvents(LinkSetEvent.EVENT_ID);
+	public void setRetrieveTimeout(int retrieveTimeout) {
+		this.retrieveTimeout = retrieveTimeout;
+	}
+
+	/**
+	 * The measures shown by the Measures Table: values received have to be
+	 * added here to be shown
+	 */
+
+	public MeasuresBuffer getMeasures() {
+		return measures;
+	}
+
+	/**
+	 * Show the given topology: the GUI is refreshed each time a new
+	 * snapshot is published
+	 */
+
+	public void setTopology(TopologyModel topology) {
+		this.topology = topology;
+		topology.addListener(this);
+	}
+
+	/**
+	 * Have the motes moved by the given layout: it has to be set before
+	 * motes are added
+	 */
+
+	public void setForceLayout(ForceLayout forceLayout) {
+		this.forceLayout = forceLayout;
+		forceLayout.addListener(this);
 	}
 
 	Random rand = new Random();
 
+	/**
+	 * Cells of the canvas taken by motes and host, created with the first
+	 * mote to fit the canvas as it is then
+	 */
+
+	private PlacementGrid placement;
+
 	private DMoteModel createNewMote(int moteID,boolean isProducer) {
-		DMoteModel m = new DMoteModel(moteID, rand, this,isProducer);
-		motes.put(new Integer(moteID), m);
+		if (placement == null) {
+			placement = new PlacementGrid(
+					Math.max(canvas.getWidth(), canvas.getPreferredSize().width),
+					Math.max(canvas.getHeight(), canvas.getPreferredSize().height),
+					PlacementGrid.DEFAULT_PITCH);
+		}
+		DMoteModel m = new DMoteModel(moteID, placement, this,isProducer);
+		motes.put(moteID, m);
+		if (moteID != rootMote)
+			moteIndex.add(m);
+
+		/**
+		 * When the root mote is created, also set coordinates for
+		 * the shape representing the host to which it's connected;
+		 * this has to be done once and we draw the host in the free
+		 * cell nearest to the root mote
+		 */
+
+		if((moteID==rootMote)&&(hostX==-1)){
+			Point host = placement.placeNear(m.getLocX(), m.getLocY());
+			hostX = host.x - SpriteCache.SPRITE_SIZE / 2;
+			hostY = host.y - SpriteCache.SPRITE_SIZE / 2;
+		}
+
+		/**
+		 * The layout starts from the place given by the grid and moves
+		 * the mote within the area of the grid; the root mote stays there
+		 */
+
+		if (forceLayout != null) {
+			forceLayout.setArea(placement.getWidth(), placement.getHeight());
+			forceLayout.addMote(moteID, m.getLocX(), m.getLocY(), moteID == rootMote);
+		}
+
+		/**
+		 * The area of the new mote has to be drawn on the canvas
+		 */
+
+		markDirty(moteBounds(m));
 		return m;
 	}
 
-	private void drawMote(int moteID,Graphics g){
-		DMote m = new DMote(((DMoteModel)motes.get(moteID)), this);
-		m.paintShape(g);
+	private void drawMote(DMoteModel model,Graphics g){
+		DMote.paintShape(g, model, this);
+	}
+
+	/**
+	 * Decode an image file, null if it can't be read
+	 */
+
+	private static BufferedImage readImage(String name) {
+		try {
+			return ImageIO.read(new File(name));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
 	}
 
 	/**
 	 * Draw the link corresponding to the given link model using the
-	 * given color and adding the given index
+	 * given color and adding the given index (none if 0)
 	 * @param model
 	 * @param g
 	 * @param color
@@ -660,23 +857,17 @@ implements TableModelListener {
 
 	private DLinkModel createNewLink(DMoteModel start, DMoteModel end) {
 		DLinkModel linkModel = new DLinkModel(start, end,this);
-		links.put(start.getId()+"->"+end.getId(), linkModel);
+		links.put(LinkKey.of(start.getId(), end.getId()), linkModel);
 		return linkModel;
 	}
 
-	public void setLinkValue(int linkQuality,int startMote, int endMote,boolean isProducer) {
-		LinkSetEvent linkSetEvent = new LinkSetEvent(this,linkQuality,startMote,
-				endMote,isProducer);
-		EventQueue eq = Toolkit.getDefaultToolkit().getSystemEventQueue();
-		eq.postEvent(linkSetEvent);
-	}
-
 	/**
 	 * Add a new path to the Paths Table (if not already there)
 	 * @param path
+	 * @param time
 	 */
 
-	public void setNewPath(int[] path){
+	private void setNewPath(int[] path,long time){
 
 		/**
 		 * Check if already in the table
@@ -688,7 +879,7 @@ implements TableModelListener {
 			 * In this case we only have to update the path
 			 */
 
-			pathsTableModel.updatePath(path);
+			pathsTableModel.updatePath(path,time);
 		}
 		else{
 
@@ -709,241 +900,502 @@ implements TableModelListener {
 			}
 			pathColors.add(backgroundColor);
 			currentPathColor=backgroundColor;
-			pathsTableModel.add(path,currentPathColor);
+			pathsTableModel.add(path,currentPathColor,time);
 		}
 	}
 
 	/**
-	 * Event handler for AWTEvents whose target is DDocument
+	 * Called by the TopologyModel thread when a new snapshot is published:
+	 * the GUI is refreshed on its own thread, once for all the snapshots
+	 * published in the meantime
 	 */
 
-	protected void processEvent(AWTEvent event) {
+	public void topologyChanged(TopologySnapshot snapshot) {
+		if (!refreshScheduled) {
+			refreshScheduled = true;
+			EventQueue.invokeLater(refreshTopology);
+		}
+	}
+
+	/**
+	 * Called by the thread adding measures: the Measures Table is brought
+	 * up to date at the next frame, once for all the measures added in the
+	 * meantime
+	 */
+
+	public void measuresAdded(MeasuresBuffer measures) {
+		if (!measuresScheduled) {
+			measuresScheduled = true;
+			EventQueue.invokeLater(refreshMeasures);
+		}
+	}
+
+	/**
+	 * Bring motes, links and paths shown by the GUI up to date with the
+	 * last snapshot of the topology, then redraw the canvas only once
+	 */
+
+	void refreshTopology() {
+		refreshScheduled = false;
+		TopologySnapshot snapshot = topology.getSnapshot();
+		if (snapshot.getVersion() == shownVersion)
+			return;
+		shownVersion = snapshot.getVersion();
 
 		/**
-		 * We only deal with new links set; we don't care
-		 * about other events
+		 * Check if the motes have been already sensed: if not, create
+		 * the model to draw them
 		 */
 
-		if (event instanceof LinkSetEvent) {
+		for (int i = 0; i < snapshot.getNumberOfMotes(); i++) {
+			if (!motes.containsKey(snapshot.getMote(i)))
+				createNewMote(snapshot.getMote(i), snapshot.isProducer(i));
+		}
 
-			/**
-			 * Parse event
-			 */
+		/**
+		 * Check if the links between the motes have been already sensed:
+		 * if not, create the model to draw them; update the value of the
+		 * links whose quality changed in the links viewer
+		 */
 
-			LinkSetEvent linkSetEvent = (LinkSetEvent) event;
-			int linkQuality = linkSetEvent.linkQuality();
-			int startMote = linkSetEvent.startMote();
-			int endMote = linkSetEvent.endMote();
-			boolean isProducer=linkSetEvent.isProducer;
+		for (int i = 0; i < snapshot.getNumberOfLinks(); i++) {
+			int startMote = snapshot.getLinkStart(i);
+			int endMote = snapshot.getLinkEnd(i);
+			int linkQuality = snapshot.getLinkQuality(i);
+			DLinkModel dl = links.get(LinkKey.of(startMote, endMote));
+			if (dl == null) {
+				dl = createNewLink(motes.get(startMote), motes.get(endMote));
+			} else if (dl.getQuality() == linkQuality) {
+				continue;
+			}
+			dl.setLinkValue(linkQuality);
+			linksViewer.updateLink(dl);
+			if (forceLayout != null)
+				forceLayout.setLink(startMote, endMote, linkQuality);
+		}
 
-			/**
-			 * Check if the two motes composing the link have been already sensed:
-			 * if not, draw one DMote shape each to represent them
-			 */
+		/**
+		 * Add or update the paths in the Paths Table, then tell the
+		 * table about all the rows added or changed at once
+		 */
 
-			DMoteModel m1 = (DMoteModel) motes.get(new Integer(startMote));
-			if (m1==null) {
-				m1 = createNewMote(startMote,isProducer);
-			}
+		for (int i = 0; i < snapshot.getNumberOfPaths(); i++)
+			setNewPath(snapshot.getPath(i), snapshot.getPathTime(i));
+		pathsTableModel.flushChanges();
 
-			DMoteModel m2 = (DMoteModel) motes.get(new Integer(endMote));
-			if (m2 == null) {
+		/**
+		 * Finally have the canvas with motes and links
+		 * redrawn at the next frame
+		 */
 
-				/**
-				 * Endpoint of a link can't be a producer because we
-				 * consider directed link, so second parameter has to
-				 * be false
-				 */
+		renderScheduler.requestRender();
+	}
 
-				m2 = createNewMote(endMote,false);
+	/**
+	 * Called by the ForceLayout thread when new positions are published:
+	 * motes are moved on the thread of the GUI, once for all the snapshots
+	 * published in the meantime
+	 */
 
-				/**
-				 * When the root mote is created, also set coordinates for
-				 * the shape representing the host to which it's connected;
-				 * this has to be done once and we try to draw the host close
-				 * to the root mote
-				 */
+	public void layoutChanged(LayoutSnapshot snapshot) {
+		if (!layoutScheduled) {
+			layoutScheduled = true;
+			EventQueue.invokeLater(refreshLayout);
+		}
+	}
 
-				if((endMote==rootMote)&&(hostX==-1)){
+	/**
+	 * Move the motes to the last positions published by the layout, then
+	 * redraw the canvas only once: the areas left and reached by the motes
+	 * moved are drawn again on the layer of motes, and the links of the
+	 * selected path are painted again where they were and where they are
+	 */
 
-					boolean overlapping=true;
-					while(overlapping){
+	void refreshLayout() {
+		layoutScheduled = false;
+		LayoutSnapshot snapshot = forceLayout.getSnapshot();
+		if (snapshot.getVersion() == shownLayoutVersion)
+			return;
+		shownLayoutVersion = snapshot.getVersion();
+
+		boolean moved = false;
+		for (int i = 0; i < snapshot.getNumberOfMotes(); i++) {
+			DMoteModel m = motes.get(snapshot.getMote(i));
+			if (m == null || (m.x == snapshot.getX(i) && m.y == snapshot.getY(i)))
+				continue;
+			if (!moved) {
+				moved = true;
+				for (int j = 0; j < numberOfShownLinks; j++)
+					repaintArea(linkBounds(shownLinks[j]));
+			}
+			markDirty(moteBounds(m));
+			int oldX = m.x;
+			int oldY = m.y;
+			m.x = snapshot.getX(i);
+			m.y = snapshot.getY(i);
+			if (m.getId() != rootMote)
+				moteIndex.move(m, oldX, oldY);
+			markDirty(moteBounds(m));
+		}
+		if (!moved)
+			return;
+		for (int j = 0; j < numberOfShownLinks; j++)
+			repaintArea(linkBounds(shownLinks[j]));
+		renderScheduler.requestRender();
+	}
 
-						/**
-						 * X coordinate w.r.t. to the container; we don't want the mote to have
-						 * its center exactly on the border, so adjust x with the width of the
-						 * image used to represent the mote
-						 */
+	/**
+	 * Space around the center of a mote covered by its shape (the halo of
+	 * producers included), and space around the segment of a link covered
+	 * by the link and by its label
+	 */
 
-						hostX = (int) m2.getLocX()+rand.nextInt((int)motesImageDimension.getWidth()+(int)hostImageDimension.getWidth()+50);
+	private static final int MOTE_RADIUS = SpriteCache.HALO_SIZE / 2;
+	private static final int LINK_MARGIN = 32;
 
-						boolean foundX=true;
+	/**
+	 * Level of detail: below LABEL_ZOOM the indexes of links are not
+	 * drawn, below CLUSTER_ZOOM the motes in the same cell of the spatial
+	 * index are drawn as a single glyph with their number; change of the
+	 * zoom at each step of the wheel
+	 */
 
-						/**
-						 * Check that the x coordinate is not beyond the limit of the canvas
-						 */
+	static final double LABEL_ZOOM = 0.75;
+	static final double CLUSTER_ZOOM = 0.5;
+	static final double ZOOM_STEP = 1.25;
+	private static final Color CLUSTER_COLOR = new Color(200, 40, 40);
 
-						if((int)(hostX+hostImageDimension.getWidth())>=canvas.getWidth()){
-							continue;
-						}
-						Iterator moteIterator=motes.entrySet().iterator();
-						while(moteIterator.hasNext()){
-							DMoteModel current=((DMoteModel)((Map.Entry)moteIterator.next()).getValue());
-							if((current.x-(int) motesImageDimension.getWidth())<=hostX && hostX<=(current.x+(int) motesImageDimension.getWidth())){
-								foundX=false;
-								break;
-							}
-						}
-						/**
-						 * Y coordinate w.r.t. to the container; we don't want the mote to have
-						 * its center exactly on the border, so adjust y with the height of the
-						 * image used to represent the mote
-						 */
+	/**
+	 * The canvas is drawn in two layers: the layer of motes and host is an
+	 * image kept between redraws, reallocated only when the size of the
+	 * canvas changes and drawn again only where motes were added or moved
+	 * (the dirty region in the coordinates of the network, null if none),
+	 * or all of it when the part of the network shown changes; the links
+	 * of the selected path and their labels are drawn over it each time the
+	 * canvas is painted
+	 */
 
-						boolean foundY=true;
-						hostY = (int) m2.getLocY()+rand.nextInt((int)motesImageDimension.getHeight()+(int)hostImageDimension.getHeight()+50);
+	private BufferedImage moteLayer;
+	private Rectangle dirtyRegion;
+	private boolean redrawAll;
 
-						/**
-						 * Check that the y coordinate is not beyond the limit of the canvas
-						 */
+	/**
+	 * The part of the network shown, and the motes (root excluded) by
+	 * cell, so that only the motes shown are looked at when drawing
+	 */
 
-						if((int)(hostY+hostImageDimension.getHeight())>=canvas.getHeight()){
-							continue;
-						}
-						moteIterator=motes.entrySet().iterator();
-						while(moteIterator.hasNext()){
-							DMoteModel current=((DMoteModel)((Map.Entry)moteIterator.next()).getValue());
-							if((current.y-(int) motesImageDimension.getHeight())<=hostY && hostY<=(current.y+(int) motesImageDimension.getHeight())){
-								foundY=false;
-								break;
-							}
-						}
-						if(!foundY&&!foundX)
-							continue;
-						else {
-							overlapping=false;
-						}
-					}
-				}
-			}
+	private final Viewport viewport = new Viewport();
+	private final SpatialIndex moteIndex = new SpatialIndex();
 
-			/**
-			 * Check if this link between the motes has been already sensed:
-			 * if note, draw one DLink shape to represent it
-			 */
+	/**
+	 * Decides when the canvas is redrawn
+	 */
 
-			DLinkModel dl = (DLinkModel) links.get(startMote + "->"
-					+ endMote);
-			if (dl == null) {
-				dl = createNewLink(m1, m2);
-			}
+	private RenderScheduler renderScheduler;
 
-			/**
-			 * ID of the link is START_MOTE->END_MOTE
-			 */
+	/**
+	 * Links drawn over the layer of motes, with their index within the path
+	 * and the color of the path; the links of the path to be drawn are
+	 * collected in the other pair of arrays, then the two are swapped
+	 */
 
-			String link=new Integer(startMote).toString()+"->"+new Integer(endMote).toString();
+	private DLinkModel[] shownLinks = new DLinkModel[AccelerationMsgView.NUMBER_OF_MOTES + 1];
+	private int[] shownHops = new int[AccelerationMsgView.NUMBER_OF_MOTES + 1];
+	private int numberOfShownLinks;
+	private Color shownColor;
+	private DLinkModel[] pathLinks = new DLinkModel[AccelerationMsgView.NUMBER_OF_MOTES + 1];
+	private int[] pathHops = new int[AccelerationMsgView.NUMBER_OF_MOTES + 1];
 
-			/**
-			 * Update the value of the link in the corresponding row of the
-			 * links table and in the links viewer
-			 */
+	/**
+	 * Add a rectangle to the part of the canvas to be drawn again
+	 */
 
-			dl.setLinkValue(link,linkQuality);
-			linksViewer.updateLink(dl);
+	private void markDirty(Rectangle area) {
+		if (dirtyRegion == null)
+			dirtyRegion = new Rectangle(area);
+		else
+			dirtyRegion.add(area);
+	}
 
-			/**
-			 * Since the link quality is BIDIRECTIONAL (it's computed 
-			 * from the the in-bound and out-bound qualitites of both 
-			 * motes in the link), the value has to updated not only 
-			 * for link A->B, but also for link B->A if a message has
-			 * already crossed the link in this direction too
-			 */
+	/**
+	 * The area covered by a mote; for the root mote, also the host and the
+	 * line between them
+	 */
 
-			dl = (DLinkModel) links.get(endMote + "->"
-					+ startMote);
-			if (dl != null) {
-				dl.setLinkValue(new Integer(endMote).toString()+"->"+new Integer(startMote).toString(),linkQuality);
-				linksViewer.updateLink(dl);
-			}
+	private Rectangle moteBounds(DMoteModel model) {
+		Rectangle bounds = new Rectangle(model.getLocX() - MOTE_RADIUS,
+				model.getLocY() - MOTE_RADIUS, 2 * MOTE_RADIUS, 2 * MOTE_RADIUS);
+		if (model.getId() == rootMote && hostX != -1) {
+			bounds.add(new Rectangle(hostX, hostY, SpriteCache.SPRITE_SIZE, SpriteCache.SPRITE_SIZE));
+			bounds.grow(2, 2);
+		}
+		return bounds;
+	}
 
-			/**
-			 * Finally redraw the whole canvas with motes
-			 * and links
-			 */
+	/**
+	 * Paint again the part of the canvas showing the given area of the
+	 * network
+	 */
+
+	private void repaintArea(Rectangle area) {
+		canvas.repaint(viewport.toCanvas(area));
+	}
+
+	/**
+	 * The part of the network shown changed: the layer of motes has to be
+	 * drawn again
+	 */
+
+	private void viewChanged() {
+		redrawAll = true;
+		renderScheduler.requestRender();
+	}
 
-			redrawCanvas();
+	/**
+	 * The area covered by all the motes (the canvas if there are none)
+	 */
+
+	private Rectangle networkBounds() {
+		Rectangle bounds = null;
+		for (int slot = 0; slot < motes.capacity(); slot++) {
+			if (!motes.isUsed(slot))
+				continue;
+			if (bounds == null)
+				bounds = moteBounds(motes.valueAt(slot));
+			else
+				bounds.add(moteBounds(motes.valueAt(slot)));
 		}
+		return bounds != null ? bounds
+				: new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight());
 	}
 
 	/**
-	 * This method draws all the motes and only the links belonging
-	 * to the path currently selected in the Paths Model
+	 * The area covered by a link and its label
+	 */
+
+	private Rectangle linkBounds(DLinkModel model) {
+		Rectangle bounds = new Rectangle(model.m1.getLocX(), model.m1.getLocY(), 0, 0);
+		bounds.add(model.m2.getLocX(), model.m2.getLocY());
+		bounds.grow(LINK_MARGIN, LINK_MARGIN);
+		return bounds;
+	}
+
+	/**
+	 * This method brings up to date the canvas, which shows the motes
+	 * and only the links belonging to the path currently selected in the
+	 * Paths Model: the motes added or moved are drawn on the layer of
+	 * motes, then only the areas of the canvas where motes were added or
+	 * moved or where links appeared, disappeared or changed since the last
+	 * call are painted again (see DPanel). Only the motes within the part of
+	 * the network shown are drawn, so the time taken depends on what's
+	 * shown and not on the size of the network
 	 */
 
 	void redrawCanvas(){
+		int width = canvas.getWidth();
+		int height = canvas.getHeight();
+		if (width <= 0 || height <= 0)
+			return;
 
 		/**
-		 * A BufferedImage is a subclass of Image with accessible buffer of image data.
-		 * Below constructor takes the following parameters:
-		 * 1 - width of the created image
-		 * 2 - height of the created image
-		 * 3 - type of the created image; "TYPE_INT_ARGB" represents an image with 8-bit RGBA color
-		 * 	   components packed into integer pixels
+		 * Allocate the layer of motes the first time and when the size of
+		 * the canvas changes, in a format compatible with the screen (so
+		 * that copying it to the canvas is fast) when possible
 		 */
 
-		Image offscreen = new BufferedImage(canvas.getWidth(), canvas.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		if (moteLayer == null || moteLayer.getWidth() != width
+				|| moteLayer.getHeight() != height) {
+			GraphicsConfiguration configuration = canvas.getGraphicsConfiguration();
+			moteLayer = configuration != null
+					? configuration.createCompatibleImage(width, height)
+					: new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			redrawAll = true;
+		}
+		Rectangle visible = viewport.toNetwork(new Rectangle(0, 0, width, height));
+		if (redrawAll) {
+			redrawAll = false;
+			dirtyRegion = new Rectangle(visible);
+		}
 
 		/**
-		 * Graphics objects represent drawing areas (a.k.a. graphics context): contains methods to
-		 * draw in this area. It's called "context" because it includes information about the drawing
-		 * area. In particular BufferedImage returns a Graphics2D object, which can be
-		 * used to draw either shapes or texts or images
+		 * Draw again the part of the layer of motes where motes were
+		 * added or moved
 		 */
 
-		Graphics g = offscreen.getGraphics();
-		Graphics2D g2d = (Graphics2D) g;
+		if (dirtyRegion != null) {
+			Rectangle area = dirtyRegion;
+			dirtyRegion = null;
+			boolean clustered = viewport.getZoom() < CLUSTER_ZOOM;
+			if (clustered) {
 
-		/**
-		 * Clears the specified rectangle filling it with the background color of the
-		 * current drawing surface
-		 */
+				/**
+				 * A mote entering or leaving a cell changes the glyph of the
+				 * cell, or its last mote now drawn alone: the whole cells
+				 * and the motes around them have to be drawn again
+				 */
 
-		g2d.clearRect(0, 0,canvas.getWidth(), canvas.getHeight());
+				area.grow(MOTE_RADIUS, MOTE_RADIUS);
+				int column = SpatialIndex.cellOf(area.x);
+				int row = SpatialIndex.cellOf(area.y);
+				area = new Rectangle(column * SpatialIndex.CELL_SIZE, row * SpatialIndex.CELL_SIZE,
+						(SpatialIndex.cellOf(area.x + area.width) - column + 1) * SpatialIndex.CELL_SIZE,
+						(SpatialIndex.cellOf(area.y + area.height) - row + 1) * SpatialIndex.CELL_SIZE);
+				area.grow(MOTE_RADIUS, MOTE_RADIUS);
+			}
+			Rectangle region = viewport.toCanvas(area.intersection(visible))
+					.intersection(new Rectangle(0, 0, width, height));
+			if (!region.isEmpty()) {
+				drawMotes(region, clustered);
+				canvas.repaint(region);
+			}
+		}
 
 		/**
-		 * Fills the specified rectangle using context's current color
+		 * Find the links of the currently selected path; the areas of
+		 * those not drawn yet, or drawn with another index or color, and
+		 * of those drawn but no more in the path have to be painted again
 		 */
 
-		g2d.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+		Color pathColor = null;
+		int numberOfPathLinks = 0;
+		if (pathsTableModel.getRowCount() > 0) {
+			pathColor = (Color) (pathsTableModel.getValueAt(pathsTableModel.selected, 3));
+			LongIntMap pathIndex = pathsTableModel.getPathLinks(pathsTableModel.selected);
+			for (int slot = 0; slot < pathIndex.capacity(); slot++) {
+				if (!pathIndex.isUsed(slot))
+					continue;
+				DLinkModel link = links.get(pathIndex.keyAt(slot));
+				if (link != null && numberOfPathLinks < pathLinks.length) {
+					pathLinks[numberOfPathLinks] = link;
+					pathHops[numberOfPathLinks++] = pathIndex.valueAt(slot);
+				}
+			}
+		}
+		boolean colorChanged = pathColor == null ? shownColor != null
+				: !pathColor.equals(shownColor);
+		for (int i = 0; i < numberOfShownLinks; i++) {
+			if (colorChanged || indexOf(shownLinks[i], shownHops[i],
+					pathLinks, pathHops, numberOfPathLinks) == -1)
+				repaintArea(linkBounds(shownLinks[i]));
+		}
+		for (int i = 0; i < numberOfPathLinks; i++) {
+			if (colorChanged || indexOf(pathLinks[i], pathHops[i],
+					shownLinks, shownHops, numberOfShownLinks) == -1)
+				repaintArea(linkBounds(pathLinks[i]));
+		}
+		DLinkModel[] swapLinks = shownLinks;
+		int[] swapHops = shownHops;
+		shownLinks = pathLinks;
+		shownHops = pathHops;
+		pathLinks = swapLinks;
+		pathHops = swapHops;
+		numberOfShownLinks = numberOfPathLinks;
+		shownColor = pathColor;
+	}
 
-		/**
-		 * Draw all motes
-		 */
+	/**
+	 * Draw the given region of the layer of motes: clear it, then draw the
+	 * motes crossing it, looking only at the cells of the spatial index
+	 * around it; when clustered, cells with more than one mote are drawn as
+	 * a glyph
+	 */
 
-		Iterator motesIterator=motes.keySet().iterator();
-		while(motesIterator.hasNext()){
-			drawMote(((Integer)motesIterator.next()).intValue(), g2d);
+	private void drawMotes(Rectangle region, boolean clustered) {
+		Graphics2D g2d = moteLayer.createGraphics();
+		g2d.clip(region);
+		g2d.setColor(Color.WHITE);
+		g2d.fillRect(region.x, region.y, region.width, region.height);
+		Graphics2D network = (Graphics2D) g2d.create();
+		viewport.apply(network);
+
+		Rectangle area = viewport.toNetwork(region);
+		area.grow(MOTE_RADIUS, MOTE_RADIUS);
+		int lastColumn = SpatialIndex.cellOf(area.x + area.width);
+		int lastRow = SpatialIndex.cellOf(area.y + area.height);
+		for (int row = SpatialIndex.cellOf(area.y); row <= lastRow; row++) {
+			for (int column = SpatialIndex.cellOf(area.x); column <= lastColumn; column++) {
+				SpatialIndex.Cell cell = moteIndex.getCell(column, row);
+				if (cell == null || cell.size == 0)
+					continue;
+				if (clustered && cell.size > 1) {
+					drawCluster(cell, g2d);
+					continue;
+				}
+				for (int i = 0; i < cell.size; i++) {
+					if (area.intersects(moteBounds(cell.motes[i])))
+						drawMote(cell.motes[i], network);
+				}
+			}
 		}
+		DMoteModel root = motes.get(rootMote);
+		if (root != null && area.intersects(moteBounds(root)))
+			drawMote(root, network);
+		network.dispose();
+		g2d.dispose();
+	}
 
-		/**
-		 * Get the color of the path to draw
-		 */
+	/**
+	 * Draw the motes in a cell as a circle with their number, at the center
+	 * of the cell and within it
+	 */
 
-		Color pathColor=(Color)(pathsTableModel.getValueAt(pathsTableModel.selected, 3));
+	private void drawCluster(SpatialIndex.Cell cell, Graphics2D g) {
+		double zoom = viewport.getZoom();
+		int x = viewport.toCanvasX((cell.column + 0.5) * SpatialIndex.CELL_SIZE);
+		int y = viewport.toCanvasY((cell.row + 0.5) * SpatialIndex.CELL_SIZE);
+		int radius = (int) Math.min(SpatialIndex.CELL_SIZE * zoom / 2 - 1,
+				6 + 3 * Math.log(cell.size) / Math.log(2));
+		g.setColor(CLUSTER_COLOR);
+		g.fillOval(x - radius, y - radius, 2 * radius, 2 * radius);
+		String label = Integer.toString(cell.size);
+		FontMetrics metrics = g.getFontMetrics();
+		g.setColor(Color.WHITE);
+		g.drawString(label, x - metrics.stringWidth(label) / 2,
+				y + metrics.getAscent() / 2 - 1);
+	}
 
-		/**
-		 * Draw a link only if belonging to the current selected path
-		 */
+	/**
+	 * Paint the canvas, or the part of it within the clip of the given
+	 * graphics: copy the layer of motes, then draw over it the links of
+	 * the selected path crossing the clip, with their indexes only when
+	 * the network is shown close enough
+	 */
 
-		Iterator linksIterator=links.entrySet().iterator();
-		while(linksIterator.hasNext()){
-			java.util.Map.Entry entry=(java.util.Map.Entry)linksIterator.next();
-			if(pathsTableModel.belongsToPath((DLinkModel)(entry.getValue()))!=-1)
-				drawLink((DLinkModel)(entry.getValue()), g2d,pathColor,pathsTableModel.belongsToPath((DLinkModel)(entry.getValue()))+1);
+	void paintCanvas(Graphics g) {
+		Rectangle clip = g.getClipBounds();
+		if (clip == null)
+			clip = new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight());
+		if (moteLayer == null) {
+			g.setColor(Color.WHITE);
+			g.fillRect(clip.x, clip.y, clip.width, clip.height);
+			return;
+		}
+		g.drawImage(moteLayer, 0, 0, null);
+		if (numberOfShownLinks == 0)
+			return;
+		Rectangle area = viewport.toNetwork(clip);
+		boolean labels = viewport.getZoom() >= LABEL_ZOOM;
+		Graphics2D network = (Graphics2D) g.create();
+		viewport.apply(network);
+		for (int i = 0; i < numberOfShownLinks; i++) {
+			if (area.intersects(linkBounds(shownLinks[i])))
+				drawLink(shownLinks[i], network, shownColor, labels ? shownHops[i] + 1 : 0);
 		}
+		network.dispose();
+	}
 
-		canvas.getGraphics().drawImage(offscreen, 0, 0, this);
+	/**
+	 * Position of a link with the given index within a list of links of
+	 * the path, -1 if not there
+	 */
+
+	private static int indexOf(DLinkModel link, int hop, DLinkModel[] links,
+			int[] hops, int count) {
+		for (int i = 0; i < count; i++) {
+			if (links[i] == link && hops[i] == hop)
+				return i;
+		}
+		return -1;
 	}
 
 	/**
@@ -1055,6 +1507,20 @@ implements TableModelListener {
 							.getProperty("width")),Integer.parseInt(rootMote), dir,
 							moteImage,hostImage,parseGetUrl,parsePostUrl,parseApplicationId,parseRESTApiKey);
 
+			/**
+			 * Max number of times per second the canvas is redrawn
+			 */
+
+			doc.setMaxFps(Integer.parseInt(properties.getProperty("maxFps",
+					String.valueOf(RenderScheduler.DEFAULT_MAX_FPS))));
+
+			/**
+			 * Max time in milliseconds to retrieve measures from Parse
+			 */
+
+			doc.setRetrieveTimeout(Integer.parseInt(properties.getProperty(
+					"retrieveTimeout", String.valueOf(MeasuresRetrieval.DEFAULT_TIMEOUT))));
+
 			/**
 			 * JWindows and JFrames consist of a number of separated overlapping "panes": among
 			 * these, the contentPane is a Container that covers visible area
@@ -1081,11 +1547,46 @@ implements TableModelListener {
 
 			frame.setVisible(true);
 
+			/**
+			 * With "layout=force" (the default) motes are moved by a
+			 * force-directed layout, otherwise they stay where they're
+			 * placed
+			 */
+
+			if ("force".equals(properties.getProperty("layout", "force"))) {
+				ForceLayout layout = new ForceLayout(ForceLayout.DEFAULT_FRAME_INTERVAL);
+				doc.setForceLayout(layout);
+				layout.start();
+			}
+
+			/**
+			 * Get the source of packets, the upload stage and the recorder
+			 * of packets as the CollectorDaemon does; with "upload=false"
+			 * values are not uploaded, e.g. when the GUI is attached as a
+			 * viewer to a CollectorDaemon which already uploads them
+			 */
+
+			String source = CollectorDaemon.getSource(properties);
+			ParseUploader uploader = CollectorDaemon.createUploader(properties);
+
+			/**
+			 * Create the model of the topology of the network, updated
+			 * by messages from motes and shown by the GUI
+			 */
+
+			TopologyModel topology = new TopologyModel(TopologyModel.DEFAULT_FRAME_INTERVAL);
+			doc.setTopology(topology);
+			topology.start();
+
 			/**
 			 * instantiate a new object to deal with messages coming from motes
 			 */
 
-			MessageInput input = new MessageInput(null, doc);
+			MessageInput input = new MessageInput(source, doc.rootMote, topology, uploader);
+			input.setMeasures(doc.getMeasures());
+			CaptureRecorder recorder = CollectorDaemon.createRecorder(properties);
+			if (recorder != null)
+				input.addPacketListener(recorder);
 
 			/**
 			 * start this object
@@ -1111,18 +1612,37 @@ implements TableModelListener {
 	 *
 	 */
 
-	private class PathsTableModel extends AbstractTableModel{
+	class PathsTableModel extends AbstractTableModel{
 
 		/**
-		 * Actual data of the the table model are represented by a matrix with a
-		 * number of rows and two columns. The columns are:
+		 * Actual data of the the table model are one row for each producer,
+		 * found by the ID of the producer. The columns are:
 		 * - Origin: ID of the producer mote
 		 * - Hopscount: number of motes between the the producer and the root
 		 * - Timestamp of the last message sent by the producer mote (this can
 		 * 	 be useful to check whether the mote is up or if it's down)
+		 * Each row keeps the path (IDs of the motes along it, root excluded,
+		 * as given by the topology and never changed), the time in ms, the
+		 * color and the index of the links of the path (see indexLinks)
 		 */
 
-		ArrayList<Object[]>data = new ArrayList<Object[]>();
+		private final IntIntMap rows = new IntIntMap();
+		private int[][] paths = new int[16][];
+		private long[] times = new long[16];
+		private Color[] colors = new Color[16];
+		private LongIntMap[] pathLinks = new LongIntMap[16];
+		private int numberOfRows;
+
+		/**
+		 * Changes are not notified when they're made but once per frame
+		 * (see flushChanges): the rows the table was told about, and the
+		 * rows among them changed since the last notification
+		 */
+
+		private int numberOfShownRows;
+		private boolean[] changed = new boolean[16];
+		private int[] changedRows = new int[16];
+		private int numberOfChangedRows;
 
 		/**
 		 * Fixed headers of the columns. Beside the two above columns containing
@@ -1151,7 +1671,7 @@ implements TableModelListener {
 		}
 
 		public int getRowCount() {
-			return data.size();
+			return numberOfShownRows;
 		}
 
 		public Object getValueAt(int row, int col) {
@@ -1163,9 +1683,17 @@ implements TableModelListener {
 
 			switch (col) {
 			case 0:
-				return ((List<Integer>)data.get(row)[col]).get(0);
+				return paths[row][0];
+			case 1:
+				return paths[row].length;
+			case 2:
+				return times[row];
+			case 3:
+				return colors[row];
+			case 4:
+				return row == selected;
 			default:
-				return data.get(row)[col];
+				return null;
 			}
 		}
 
@@ -1214,27 +1742,20 @@ implements TableModelListener {
 			case 4:
 
 				/**
-				 * Set the "selected" field to the selected row
+				 * Set the "selected" field to the selected row: the
+				 * checkbox of the row selected before is reset
 				 */
 
+				int previous=selected;
 				selected=rowIndex;
-				data.get(rowIndex)[4]=Boolean.TRUE;
-
-				/**
-				 * Reset all the other checkboxes
-				 */
-
-				for(int i=0;i<getRowCount();i++){
-					if(i!=rowIndex)
-						data.get(i)[4]=Boolean.FALSE;
-				}
 
 				/**
-				 * Notify changes
+				 * Notify changes, only for the two rows involved
 				 */
 
+				if(previous!=rowIndex && previous<getRowCount())
+					fireTableRowsUpdated(previous, previous);
 				fireTableCellUpdated(rowIndex, columnIndex);
-				fireTableRowsUpdated(0, getRowCount()-1);
 				break;
 			default:
 				break;
@@ -1250,86 +1771,126 @@ implements TableModelListener {
 		public int belongsToPath(DLinkModel linkModel){
 
 			/**
-			 * If the start mote (we consider only directed link)
-			 * is in the list of motes of the selected path, and
-			 * the next element in the list is the other extreme
-			 * of the link, then the link belongs to the path
+			 * We consider only directed links: look up the key of
+			 * the link in the index of the links of the path
 			 */
 
-			ArrayList<Integer> pathArrayList=(ArrayList<Integer>)data.get(selected)[0];
-			int index=pathArrayList.indexOf(new Integer(linkModel.m1.getId()));
-			if((index!=-1)&&(pathArrayList.get(index+1)==linkModel.m2.getId())){
-				return index;
-			}
-			return -1;
+			return pathLinks[selected].get(LinkKey.of(linkModel.m1.getId(), linkModel.m2.getId()));
 		}
 
 		/**
-		 * Method to check if a path is already stored in the
-		 * table
+		 * The links along the path of the given row: the key of each
+		 * directed link (see LinkKey) with its index within the path
 		 */
 
-		public boolean containsPath(int[] path){
-
-			int origin=path[0];
+		LongIntMap getPathLinks(int row) {
+			return pathLinks[row];
+		}
 
-			/**
-			 * Go through all the paths and stop if one whose origin
-			 * coincides with the one of the provided path is found
-			 */
+		/**
+		 * Build the index of the links along a path (root excluded):
+		 * the i-th link goes from the i-th mote to the next one, or to
+		 * the root for the last mote; if a link appears twice, its first
+		 * index is kept
+		 */
 
-			Iterator<Object[]> rowsIterator=data.iterator();
-			while(rowsIterator.hasNext()){
-				if(((List<Integer>)(rowsIterator.next()[0])).get(0)==origin)
-					return true;
+		private LongIntMap indexLinks(int[] path) {
+			LongIntMap index = new LongIntMap(path.length);
+			for (int i = 0; i < path.length; i++) {
+				long key = LinkKey.of(path[i], i + 1 < path.length ? path[i + 1] : rootMote);
+				if (!index.containsKey(key))
+					index.put(key, i);
 			}
-			return false;
+			return index;
+		}
+
+		/**
+		 * Method to check if a path is already stored in the
+		 * table, namely if there's a row for its origin
+		 */
+
+		public boolean containsPath(int[] path){
+			return rows.containsKey(path[0]);
 		}
 
 		/**
-		 * Update a path from producer to root
+		 * Update a path from producer to root with the time of the last
+		 * message sent along it
 		 * @param path
+		 * @param time
 		 */
 
-		public void updatePath(int[] path){
+		public void updatePath(int[] path,long time){
 
-			int producer=path[0];
+			/**
+			 * Get the row corresponding to the given origin
+			 */
+
+			int row=rows.get(path[0]);
+			if(row==IntIntMap.MISSING)
+				return;
 
 			/**
-			 * Get the path corresponding to the given origin and
-			 * update it
+			 * Nothing to do if no message arrived since the
+			 * last update
 			 */
 
-			Iterator<Object[]> rowsIterator=data.iterator();
-			int rowIndex=0;
-			while(rowsIterator.hasNext()){
+			if(times[row]==time)
+				return;
 
-				Object[] rowValue=rowsIterator.next();
-				if(((List<Integer>)(rowValue[0])).get(0)==producer){
+			/**
+			 * Keep the new path, and build the index of its links,
+			 * only if the path changed
+			 */
 
-					/**
-					 * Create the updated list of motes along the
-					 * path from the given parameter
-					 */
+			if(paths[row]!=path && !Arrays.equals(paths[row],path)){
+				paths[row]=path;
+				pathLinks[row]=indexLinks(path);
+			}
+			times[row]=time;
+			rowChanged(row);
+		}
 
-					ArrayList<Integer> pathList=new ArrayList();
-					for(int i=0;i<path.length;i++){
-						pathList.add(new Integer(path[i]));
-					}
+		/**
+		 * Remember that a row the table was told about changed
+		 */
 
-					/**
-					 * Add the root mote
-					 */
+		private void rowChanged(int row) {
+			if (row >= numberOfShownRows || changed[row])
+				return;
+			changed[row] = true;
+			changedRows[numberOfChangedRows++] = row;
+		}
 
-					pathList.add(rootMote);
-					rowValue[0]=pathList;
-					rowValue[1]=path.length;
-					rowValue[2]=new Date();
-					fireTableRowsUpdated(rowIndex, rowIndex);
-					return;
+		/**
+		 * Notify the table of the changes made since the last call, once
+		 * per frame: the rows added, then the rows changed, with one event
+		 * for each range of consecutive rows, so that the table draws
+		 * again only the rows changed whatever the number of messages
+		 */
+
+		void flushChanges() {
+			if (numberOfShownRows < numberOfRows) {
+				int first = numberOfShownRows;
+				numberOfShownRows = numberOfRows;
+				fireTableRowsInserted(first, numberOfRows - 1);
+			}
+			if (numberOfChangedRows == 0)
+				return;
+			Arrays.sort(changedRows, 0, numberOfChangedRows);
+			int first = changedRows[0];
+			int last = first;
+			for (int i = 0; i < numberOfChangedRows; i++) {
+				int row = changedRows[i];
+				changed[row] = false;
+				if (row > last + 1) {
+					fireTableRowsUpdated(first, last);
+					first = row;
 				}
-				++rowIndex;
+				last = row;
 			}
+			fireTableRowsUpdated(first, last);
+			numberOfChangedRows = 0;
 		}
 
 		public void shapeChanged(DMoteModel changed) {
@@ -1354,38 +1915,25 @@ implements TableModelListener {
 		}
 
 		/**
-		 * Add a new row to the PathsTable
+		 * Add a new row to the PathsTable; if the table is empty, the
+		 * new path is shown, else the last selected path is still shown
 		 */
 
-		public void add(int[] path,Color background) {
-			//model.addListener(this);
-
-			/**
-			 * Turn the int array into a list (it's easier
-			 * to check if the path contains one link)
-			 */
-
-			ArrayList<Integer> pathList=new ArrayList();
-			for(int i=0;i<path.length;i++){
-				pathList.add(new Integer(path[i]));
+		public void add(int[] path,Color background,long time) {
+			if (numberOfRows == paths.length) {
+				paths = Arrays.copyOf(paths, 2 * numberOfRows);
+				times = Arrays.copyOf(times, 2 * numberOfRows);
+				colors = Arrays.copyOf(colors, 2 * numberOfRows);
+				pathLinks = Arrays.copyOf(pathLinks, 2 * numberOfRows);
+				changed = Arrays.copyOf(changed, 2 * numberOfRows);
+				changedRows = Arrays.copyOf(changedRows, 2 * numberOfRows);
 			}
-
-			/**
-			 * Add the root as last element
-			 */
-
-			pathList.add(rootMote);
-
-			/**
-			 * If the table is empty, show the new path,
-			 * else keep showing the last selected path
-			 */
-
-			if(getRowCount()==0)
-				data.add(new Object[]{pathList,path.length,new Date(),background,true});
-			else
-				data.add(new Object[]{pathList,path.length,new Date(),background,false});
-			fireTableDataChanged();
+			int row = numberOfRows++;
+			paths[row] = path;
+			times[row] = time;
+			colors[row] = background;
+			pathLinks[row] = indexLinks(path);
+			rows.put(path[0], row);
 		}
 
 		public void remove(DMoteModel model) {
@@ -1430,20 +1978,23 @@ implements TableModelListener {
 	ActionListener,DocumentListener {
 
 		/**
-		 * Actual data of the the table model are represented by a matrix with a
-		 * number of rows and five columns. The columns are:
+		 * Actual data of the the table model are the measures kept by the
+		 * MeasuresBuffer, newest first, read straight from its columns. The
+		 * columns are:
 		 * - X Acc: value of the acceleration along x-axis
 		 * - Y Acc: value of the acceleration along y-axis
 		 * - Z Acc: value of the acceleration along z-axis
 		 * - MoteID: ID of the mote where the values were collected by the accelerometer
-		 * - updatedA: timestamp of the moment when data were uploaded on Parse
+		 * - updatedA: timestamp of the moment when data were received, or
+		 *   uploaded on Parse for the measures retrieved from there
 		 * 
-		 * We use a list of arrays of Object to represent data, because we want to let
-		 * the user get any number of data uploaded on Parse; each array of Object 
-		 * represents a row of the MeasureTable
+		 * Measures are added by the thread receiving messages, and the table
+		 * is told about them once per frame (see flushChanges): the rows
+		 * shown are those up to the measure "shownWritten" (excluded)
 		 */
 
-		ArrayList<Object[]>data = new ArrayList<Object[]>();
+		private long shownWritten;
+		private int numberOfRows;
 
 		/**
 		 * Fixed headers of the columns
@@ -1453,7 +2004,7 @@ implements TableModelListener {
 
 		/**
 		 * The number of last updated measures to retrieve from Parse on
-		 * next user request; by default it's 1, but can be changes by
+		 * the first user request; by default it's 1, but can be changes by
 		 * the user editing the value in the dedicated text field (see
 		 * above)
 		 */
@@ -1461,9 +2012,22 @@ implements TableModelListener {
 		String limit="1";
 
 		/**
-		 * Constructor for our custom table: simply initialize all rows
-		 * with null values the X,Y and Z columns and with empty string
-		 * the column indicating the date of the updating of the value
+		 * The retrieval going on, if any
+		 */
+
+		private MeasuresRetrieval retrieval;
+
+		/**
+		 * How far the measures retrieved from Parse go: after the first
+		 * retrieval, only the measures updated since are retrieved
+		 */
+
+		private final MeasuresWatermark retrieved = new MeasuresWatermark();
+
+		/**
+		 * Constructor for our custom table: the table is empty until
+		 * measures arrive, then it's brought up to date once per frame
+		 * (see measuresAdded)
 		 */
 
 		public MeasuresTableModel() {
@@ -1477,7 +2041,7 @@ implements TableModelListener {
 		 */
 
 		public int getRowCount() {
-			return data.size();
+			return numberOfRows;
 		}
 
 		/**
@@ -1498,7 +2062,19 @@ implements TableModelListener {
 		 */
 
 		public Object getValueAt(int row, int column) {
-			return data.get(row)[column];
+			long measure = shownWritten - 1 - row;
+			switch (column) {
+			case 0:
+				return (int) measures.getX(measure);
+			case 1:
+				return (int) measures.getY(measure);
+			case 2:
+				return (int) measures.getZ(measure);
+			case 3:
+				return measures.getOrigin(measure);
+			default:
+				return measures.getTimestamp(measure);
+			}
 		}
 
 		/**
@@ -1510,109 +2086,87 @@ implements TableModelListener {
 			return columnNames[column];
 		}
 
+		@Override
+		public Class<?> getColumnClass(int columnIndex) {
+			return columnIndex == 4 ? Long.class : Integer.class;
+		}
+
 		/**
-		 * Override this method in order to properly implement sorting;
-		 * when a column is sorted, sorting has to be consistent with 
-		 * the type of values inside the column
+		 * Tell the table about the measures added since the last call:
+		 * the new ones are inserted at the top, the ones overwritten in
+		 * the MeasuresBuffer are deleted at the bottom, so the table only
+		 * draws again the rows it shows
 		 */
 
-		@Override
-		public Class<?> getColumnClass(int columnIndex) {
-			if (data.isEmpty()) {
-				return Object.class;
+		void flushChanges() {
+			long written = measures.getWritten();
+			if (written == shownWritten)
+				return;
+			long added = written - shownWritten;
+			int rows = (int) Math.min(written, measures.getCapacity());
+			int previousRows = numberOfRows;
+			if (added >= rows) {
+				shownWritten = written;
+				numberOfRows = rows;
+				fireTableDataChanged();
+				return;
+			}
+
+			/**
+			 * Each event is fired when the model already looks as the event
+			 * tells: rows are deleted from those shown so far, which are
+			 * still in the MeasuresBuffer, then the new rows are inserted
+			 */
+
+			int removed = (int) (previousRows + added - rows);
+			if (removed > 0) {
+				numberOfRows = previousRows - removed;
+				fireTableRowsDeleted(previousRows - removed, previousRows - 1);
 			}
-			return getValueAt(0, columnIndex).getClass();
+			shownWritten = written;
+			numberOfRows = rows;
+			fireTableRowsInserted(0, (int) added - 1);
 		}
 
 		/**
 		 * Get last updated values from sensors from Parse repository.
 		 * Requests to Parse are simply HTTP GET request; response is given
 		 * as JSON Object. URL of the request to Parse is read from Java
-		 * property file. Here we use an HTTP Client from Apache to make
-		 * HTTP GET requests
+		 * property file. The requests are made off the EDT by a
+		 * MeasuresRetrieval, whose progress is shown next to the button;
+		 * the measures retrieved are shown all at once when it's over.
+		 * The first time, the last "limit" measures are retrieved, then
+		 * only the ones updated since the last retrieval
 		 */
 
 		void retrieveMeasures() {
-			try {
-
-				/**
-				 * Create an instance of HTTP client
-				 */
-
-				CloseableHttpClient httpclient = HttpClients.createDefault();
+			retrieval = new MeasuresRetrieval(parseGetURL,
+					Integer.parseInt(limit), parseApplicationId,
+					parseRESTApiKey, measures, retrieved, retrieveTimeout);
+			retrieval.addPropertyChangeListener(new PropertyChangeListener() {
+				public void propertyChange(PropertyChangeEvent e) {
+					if ("progress".equals(e.getPropertyName())) {
+						measuresProgress.setIndeterminate(false);
+						measuresProgress.setValue((Integer) e.getNewValue());
+					} else if (e.getNewValue() == SwingWorker.StateValue.DONE) {
+						retrieval = null;
+						measuresButton.setText("Retrieve");
+						measuresProgress.setVisible(false);
 
-				/**
-				 * Create an instance of an HTTP GET request; URL is taken from
-				 * property file and the actual number of values to retrieve is
-				 * added
-				 */
-
-				HttpGet httpGet = new HttpGet(
-						parseGetURL+limit);
-
-				/**
-				 * Add mandatory headers to make requests to Parse repository
-				 */
-
-				httpGet.addHeader(parseApplicationIdHeader,
-						parseApplicationId);
-				httpGet.addHeader(parseRESTApiKeyHeader,
-						parseRESTApiKey);
-
-				/**
-				 * Execute the HTTP GET request and get an HTTP Response
-				 */
-
-				CloseableHttpResponse response = httpclient.execute(httpGet);
-
-				/**
-				 * Open a buffer to read the content associated to the HTTP
-				 * Response received
-				 */
-
-				BufferedReader rd = new BufferedReader(new InputStreamReader(
-						response.getEntity().getContent()));
-
-				/**
-				 * Read content as a string
-				 */
-
-				String line = "";
-				String content = "";
-				while ((line = rd.readLine()) != null) {
-					content += line;
-				}
-
-				/**
-				 * Content is actually a JSONObject, more precisely
-				 * a JSONArray with one element for each result of
-				 * the query (namely for the three last updated
-				 * values)
-				 */
-
-				JSONObject json = new JSONObject(content);
-
-				/**
-				 * Extract JSONArray from JSONObject; its name
-				 * is "results"
-				 */
-
-				JSONArray results = json.getJSONArray("results");
-
-				/**
-				 * Parse each element in JSONArray to get X,Y and Z
-				 * values of acceleration and the "update date"
-				 */
+						/**
+						 * Tell the table about the measures retrieved
+						 * right away, without waiting for the next frame
+						 */
 
-				for (int i = 0; i < results.length(); i++) {
-					JSONObject row = (JSONObject) results.get(i);
-					data.add(new Object[]{row.getInt("X"),row.getInt("Y"),row.getInt("Z"),row.getInt("Origin"),row.getString("updatedAt")});
+						flushChanges();
+					}
 				}
-			} catch (IOException ex) {
-				System.out.println(ex.getMessage());
-			} catch (JSONException ex) {
-				System.out.println(ex.getMessage());
-			}
+			});
+			measuresButton.setText("Cancel");
+			measuresProgress.setValue(0);
+			measuresProgress.setIndeterminate(true);
+			measuresProgress.setVisible(true);
+			retrieval.start();
 		}
 
 		/**
@@ -1623,18 +2177,14 @@ implements TableModelListener {
 
 			/**
 			 * When the button is clicked, retrieve a number of data from
-			 * Parse as specified by the text field
+			 * Parse as specified by the text field, or stop the retrieval
+			 * going on
 			 */
 
-			retrieveMeasures();
-
-			/**
-			 * Method from AbstractTableModel class: notifies all
-			 * listeners that all cells in the table's rows may have
-			 * changed so that JTable should reload them
-			 */
-
-			fireTableDataChanged();
+			if (retrieval != null)
+				retrieval.stop();
+			else
+				retrieveMeasures();
 		}
 
 		/**
@@ -1694,54 +2244,17 @@ implements TableModelListener {
 			doc = d;
 		}
 
-		public void paintComponent(Graphics g) {
-			super.paintComponent(g);
-			setOpaque(false);
-		}
-
-		public void paint(Graphics g) {
-		}
-	}
-
-	/**
-	 * User defined AWT event: there's a link between two motes
-	 * 
-	 * @author user
-	 * 
-	 */
-
-	protected class LinkSetEvent extends AWTEvent {
-
-		public static final int EVENT_ID = AWTEvent.RESERVED_ID_MAX + 2;
-		private int linkQuality;
-		private int startMote;
-		private int endMote;
-
 		/**
-		 * If true, startMote is a producer
+		 * The canvas covers all its area, so Swing doesn't need to paint
+		 * what's behind it
 		 */
 
-		private boolean isProducer;
-
-		public LinkSetEvent(Object target,int linkQuality, int startMote,
-				int endMote,boolean isProducer) {
-			super(target, EVENT_ID);
-			this.linkQuality = linkQuality;
-			this.startMote = startMote;
-			this.endMote = endMote;			
-			this.isProducer=isProducer;
-		}
-
-		public int linkQuality() {
-			return linkQuality;
+		public boolean isOpaque() {
+			return true;
 		}
 
-		public int startMote() {
-			return startMote;
-		}
-
-		public int endMote() {
-			return endMote;
+		public void paintComponent(Graphics g) {
+			doc.paintCanvas(g);
 		}
 	}
 
@@ -1801,7 +2314,7 @@ implements TableModelListener {
 	@Override
 	public void tableChanged(TableModelEvent arg0) {
 		if(arg0.getColumn()==4){
-			redrawCanvas();
+			renderScheduler.requestRender();
 		}
 
 	}
@@ -92,10 +92,11 @@ extends JComponent
 		
 		/**
 		 * Draw the index of the link within the currently
-		 * shown path
+		 * shown path, if any
 		 */
 		
-		g2.drawString(Integer.toString(index), midX, midY);
+		if (index > 0)
+			g2.drawString(Integer.toString(index), midX, midY);
 	}
 }
 
@@ -54,7 +54,7 @@ implements Serializable {
 		y12 = getMiddle(m1.y, m2.y);
 	}
 
-	protected void setLinkValue(String name, int value) {
+	protected void setLinkValue(int value) {
 		quality = value;
 	}
 	private int getMiddle(int x1, int x2){
@@ -69,11 +69,15 @@ implements Serializable {
 		return(values[index]);
 	}
 	
+	/**
+	 * Middle of the link, which moves with its motes
+	 */
+
 	public int getLocX() {
-		return x12;
+		return getMiddle(m1.x, m2.x);
 	}	
 	public int getLocY() {
-		return y12;
+		return getMiddle(m1.y, m2.y);
 	}		
 }
 
@@ -70,15 +70,15 @@ class DMoteModel extends Object implements Serializable {
 	private boolean isProducer;
 
 	/**
-	 * Constructor position on the canvas is randomly determined
-	 * at the beginning
+	 * Constructor position on the canvas is taken from the placement
+	 * grid at the beginning
 	 * 
 	 * @param id
-	 * @param rand
+	 * @param placement
 	 * @param root
 	 */
 
-	public DMoteModel(int id, Random rand, DDocument root,boolean isProducer) {
+	public DMoteModel(int id, PlacementGrid placement, DDocument root,boolean isProducer) {
 
 		/**
 		 * The root container (DDocument)
@@ -93,59 +93,14 @@ class DMoteModel extends Object implements Serializable {
 		this.id = id;
 
 		/**
-		 * Randomly choose position of the mote on the canvas avoiding
-		 * overlappings
+		 * Position of the mote on the canvas: the center of the free cell
+		 * nearest to the one chosen for its ID, so that motes don't
+		 * overlap and get the same position each time
 		 */
 
-		boolean overlapping=true;
-		while(overlapping){
-
-			/**
-			 * X coordinate w.r.t. to the container; we don't want the mote to have
-			 * its center exactly on the border, so adjust x with the width of the
-			 * image used to represent the mote
-			 */
-
-			x = (int) root.motesImageDimension.getWidth()+rand.nextInt(root.canvas.getWidth() - 2*(int) root.motesImageDimension.getWidth());
-
-			boolean foundX=true;
-			Iterator moteIterator=root.motes.entrySet().iterator();
-			while(moteIterator.hasNext()){
-				DMoteModel current=((DMoteModel)((Map.Entry)moteIterator.next()).getValue());
-				if((current.x-(int) root.motesImageDimension.getWidth())<=x && x<=(current.x+(int) root.motesImageDimension.getWidth())){
-					foundX=false;
-					break;
-				}
-			}
-
-			/**
-			 * Y coordinate w.r.t. to the container; we don't want the mote to have
-			 * its center exactly on the border, so adjust y with the height of the
-			 * image used to represent the mote
-			 */
-
-			y = (int) root.motesImageDimension.getHeight()+rand.nextInt(root.canvas.getHeight() - 2*(int) root.motesImageDimension.getHeight());
-			boolean foundY=true;
-			moteIterator=root.motes.entrySet().iterator();
-			while(moteIterator.hasNext()){
-				DMoteModel current=((DMoteModel)((Map.Entry)moteIterator.next()).getValue());
-				if((current.y-(int) root.motesImageDimension.getHeight())<=y && y<=(current.y+(int) root.motesImageDimension.getHeight())){
-					foundY=false;
-					break;
-				}
-			}
-			if(!foundY&&!foundX)
-				
-				/**
-				 * The mote overlaps another one: iterate
-				 * to try new random coordinates
-				 */
-				
-				continue;
-			else {
-				overlapping=false;
-			}
-		}
+		Point location = placement.place(id);
+		x = location.x;
+		y = location.y;
 
 		this.isProducer=isProducer;
 	}
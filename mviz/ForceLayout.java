@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A force-directed layout of the motes, computed by its own thread: motes
+ * push each other away, links pull their motes together with a strength
+ * given by their quality (a perfect link pulls the most) and the root mote
+ * doesn't move, holding the network in place.
+ * 
+ * The layout is incremental: each mote has a heat, the max distance it can
+ * move in a step, which decreases at each step; only hot motes are moved.
+ * A new mote starts hot, at the position given by the GUI, and makes hot
+ * the motes it's linked to, so the layout is refined only around the motes
+ * added and then stops until something else is added.
+ * 
+ * Changes arrive from any thread and are queued; the thread of the layout
+ * applies them, moves the hot motes for a few steps and publishes the
+ * positions as an immutable LayoutSnapshot, at most once per frame
+ * interval. Readers take the last snapshot with getSnapshot() without
+ * locks, or are notified by LayoutListener.
+ * 
+ * @author user
+ */
+
+public class ForceLayout implements Runnable {
+
+	/**
+	 * Default interval between two snapshots (ms)
+	 */
+
+	static final long DEFAULT_FRAME_INTERVAL = 40;
+
+	/**
+	 * Steps computed for each snapshot
+	 */
+
+	static final int STEPS_PER_FRAME = 10;
+
+	/**
+	 * Distance between two linked motes at which forces balance, and
+	 * distance beyond which motes don't push each other
+	 */
+
+	static final float IDEAL_DISTANCE = PlacementGrid.DEFAULT_PITCH;
+	static final float REPULSION_RANGE = 3 * IDEAL_DISTANCE;
+
+	/**
+	 * Max distance moved in a step by a mote at full heat; decrease of
+	 * the heat at each step and heat below which a mote stops
+	 */
+
+	static final float MAX_STEP = 30;
+	static final float COOLING = 0.98f;
+	static final float MIN_HEAT = 0.02f;
+
+	/**
+	 * Heat of a new mote and of the motes a new link is attached to
+	 */
+
+	static final float NEW_MOTE_HEAT = 1;
+	static final float NEW_LINK_HEAT = 0.5f;
+
+	/**
+	 * Quality of a perfect link (as given by the link estimator)
+	 */
+
+	static final int PERFECT_QUALITY = 10;
+
+	/**
+	 * Kinds of changes queued
+	 */
+
+	private static final int ADD_MOTE = 0;
+	private static final int SET_LINK = 1;
+	private static final int SET_AREA = 2;
+
+	private final long frameInterval;
+	private final BlockingQueue<int[]> queue = new LinkedBlockingQueue<int[]>();
+	private final List<LayoutListener> listeners = new CopyOnWriteArrayList<LayoutListener>();
+	private volatile LayoutSnapshot snapshot = new LayoutSnapshot(0,
+			new int[0], new int[0], new int[0], 0);
+	private volatile boolean running;
+	private Thread thread;
+
+	/**
+	 * State of the layout, only accessed by the thread of the layout: for
+	 * motes, the position in the arrays given their ID, their position,
+	 * heat and springs (indexes of the links attached to them); for links,
+	 * the position in the arrays given their key, the two motes (positions
+	 * in the arrays of motes) and the strength
+	 */
+
+	private final IntIntMap moteIndexes = new IntIntMap();
+	private int[] motes = new int[16];
+	private float[] xs = new float[16];
+	private float[] ys = new float[16];
+	private float[] heats = new float[16];
+	private boolean[] anchors = new boolean[16];
+	private int[][] springs = new int[16][];
+	private int[] numberOfSprings = new int[16];
+	private int numberOfMotes;
+
+	private final LongIntMap linkIndexes = new LongIntMap();
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private float[] strengths = new float[16];
+	private int numberOfLinks;
+
+	private int[] hot = new int[16];
+	private float width = Float.MAX_VALUE;
+	private float height = Float.MAX_VALUE;
+	private long version;
+
+	/**
+	 * Create a layout publishing at most one snapshot every frameInterval
+	 * milliseconds
+	 */
+
+	public ForceLayout(long frameInterval) {
+		this.frameInterval = frameInterval;
+	}
+
+	public void addListener(LayoutListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(LayoutListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * The last snapshot published
+	 */
+
+	public LayoutSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Add a mote at the given position; an anchored mote (the root) is
+	 * never moved
+	 */
+
+	public void addMote(int mote, int x, int y, boolean anchored) {
+		queue.add(new int[] { ADD_MOTE, mote, x, y, anchored ? 1 : 0 });
+	}
+
+	/**
+	 * Add the directed link between two motes already added, or change
+	 * its quality (as given by the link estimator, PERFECT_QUALITY or
+	 * more)
+	 */
+
+	public void setLink(int start, int end, int quality) {
+		queue.add(new int[] { SET_LINK, start, end, quality });
+	}
+
+	/**
+	 * Keep the centers of the motes within width x height
+	 */
+
+	public void setArea(int width, int height) {
+		queue.add(new int[] { SET_AREA, width, height });
+	}
+
+	public synchronized void start() {
+		if (thread != null)
+			return;
+		running = true;
+		thread = new Thread(this, "ForceLayout");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+			thread = null;
+		}
+		if (t == null)
+			return;
+		running = false;
+		t.interrupt();
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Body of the thread of the layout: apply the changes available, waiting
+	 * for them when no mote is hot; then move the hot motes, publish their
+	 * positions and wait until the end of the frame
+	 */
+
+	public void run() {
+		ArrayList<int[]> changes = new ArrayList<int[]>();
+		try {
+			while (running) {
+				if (numberOfHot() == 0)
+					changes.add(queue.take());
+				long frameStart = System.currentTimeMillis();
+				queue.drainTo(changes);
+				for (int i = 0; i < changes.size(); i++)
+					apply(changes.get(i));
+				changes.clear();
+				boolean moved = false;
+				for (int i = 0; i < STEPS_PER_FRAME; i++)
+					moved |= step();
+				if (moved)
+					publish();
+				long left = frameStart + frameInterval - System.currentTimeMillis();
+				if (left > 0)
+					Thread.sleep(left);
+			}
+		} catch (InterruptedException e) {
+
+			/**
+			 * Woken up by stop()
+			 */
+		}
+	}
+
+	/**
+	 * Apply a queued change to the state of the layout
+	 */
+
+	void apply(int[] change) {
+		switch (change[0]) {
+		case ADD_MOTE:
+			if (moteIndexes.containsKey(change[1]))
+				return;
+			if (numberOfMotes == motes.length)
+				growMotes();
+			motes[numberOfMotes] = change[1];
+			xs[numberOfMotes] = change[2];
+			ys[numberOfMotes] = change[3];
+			anchors[numberOfMotes] = change[4] != 0;
+			heats[numberOfMotes] = anchors[numberOfMotes] ? 0 : NEW_MOTE_HEAT;
+			springs[numberOfMotes] = new int[4];
+			moteIndexes.put(change[1], numberOfMotes++);
+			break;
+		case SET_LINK:
+			int start = moteIndexes.get(change[1]);
+			int end = moteIndexes.get(change[2]);
+			if (start == IntIntMap.MISSING || end == IntIntMap.MISSING)
+				return;
+			long key = LinkKey.of(change[1], change[2]);
+			int link = linkIndexes.get(key);
+			if (link == LongIntMap.MISSING) {
+				if (numberOfLinks == starts.length) {
+					starts = Arrays.copyOf(starts, 2 * numberOfLinks);
+					ends = Arrays.copyOf(ends, 2 * numberOfLinks);
+					strengths = Arrays.copyOf(strengths, 2 * numberOfLinks);
+				}
+				link = numberOfLinks++;
+				linkIndexes.put(key, link);
+				starts[link] = start;
+				ends[link] = end;
+				addSpring(start, link);
+				addSpring(end, link);
+				warm(start, NEW_LINK_HEAT);
+				warm(end, NEW_LINK_HEAT);
+			}
+			strengths[link] = (float) PERFECT_QUALITY
+					/ Math.max(change[3], PERFECT_QUALITY);
+			break;
+		case SET_AREA:
+			width = change[1];
+			height = change[2];
+			break;
+		}
+	}
+
+	/**
+	 * Move each hot mote by the sum of the forces on it, at most by its
+	 * heat times MAX_STEP, and cool it down
+	 * 
+	 * @return true if a mote moved
+	 */
+
+	boolean step() {
+		int numberOfHot = numberOfHot();
+		boolean moved = false;
+		float range = REPULSION_RANGE * REPULSION_RANGE;
+		float ideal = IDEAL_DISTANCE * IDEAL_DISTANCE;
+		for (int h = 0; h < numberOfHot; h++) {
+			int i = hot[h];
+			float x = xs[i];
+			float y = ys[i];
+			float fx = 0;
+			float fy = 0;
+
+			/**
+			 * Motes within range push with a force ideal^2 / distance; two
+			 * motes in the same place are told apart by their position in
+			 * the arrays
+			 */
+
+			for (int j = 0; j < numberOfMotes; j++) {
+				if (j == i)
+					continue;
+				float dx = x - xs[j];
+				float dy = y - ys[j];
+				float distance2 = dx * dx + dy * dy;
+				if (distance2 > range)
+					continue;
+				if (distance2 < 1) {
+					dx = i < j ? -1 : 1;
+					dy = 0;
+					distance2 = 1;
+				}
+				float force = ideal / distance2;
+				fx += dx * force;
+				fy += dy * force;
+			}
+
+			/**
+			 * Links pull with a force strength * distance^2 / ideal
+			 */
+
+			int[] attached = springs[i];
+			for (int s = 0; s < numberOfSprings[i]; s++) {
+				int link = attached[s];
+				int other = starts[link] == i ? ends[link] : starts[link];
+				float dx = xs[other] - x;
+				float dy = ys[other] - y;
+				float distance = (float) Math.sqrt(dx * dx + dy * dy);
+				float force = strengths[link] * distance / IDEAL_DISTANCE;
+				fx += dx * force;
+				fy += dy * force;
+			}
+
+			float length = (float) Math.sqrt(fx * fx + fy * fy);
+			if (length > 0) {
+				float move = Math.min(length, MAX_STEP * heats[i]) / length;
+				float newX = clamp(x + fx * move, width);
+				float newY = clamp(y + fy * move, height);
+				if ((int) newX != (int) x || (int) newY != (int) y)
+					moved = true;
+				xs[i] = newX;
+				ys[i] = newY;
+			}
+			heats[i] *= COOLING;
+			if (heats[i] < MIN_HEAT)
+				heats[i] = 0;
+		}
+		return moved;
+	}
+
+	/**
+	 * Publish the positions as a new snapshot and notify the listeners
+	 */
+
+	void publish() {
+		int[] x = new int[numberOfMotes];
+		int[] y = new int[numberOfMotes];
+		for (int i = 0; i < numberOfMotes; i++) {
+			x[i] = Math.round(xs[i]);
+			y[i] = Math.round(ys[i]);
+		}
+		LayoutSnapshot published = new LayoutSnapshot(++version,
+				Arrays.copyOf(motes, numberOfMotes), x, y, numberOfMotes);
+		snapshot = published;
+		for (LayoutListener listener : listeners)
+			listener.layoutChanged(published);
+	}
+
+	/**
+	 * Collect the positions of the hot motes
+	 */
+
+	private int numberOfHot() {
+		if (hot.length < numberOfMotes)
+			hot = new int[motes.length];
+		int numberOfHot = 0;
+		for (int i = 0; i < numberOfMotes; i++) {
+			if (heats[i] > 0)
+				hot[numberOfHot++] = i;
+		}
+		return numberOfHot;
+	}
+
+	private void warm(int mote, float heat) {
+		if (!anchors[mote] && heats[mote] < heat)
+			heats[mote] = heat;
+	}
+
+	private void addSpring(int mote, int link) {
+		if (numberOfSprings[mote] == springs[mote].length)
+			springs[mote] = Arrays.copyOf(springs[mote], 2 * numberOfSprings[mote]);
+		springs[mote][numberOfSprings[mote]++] = link;
+	}
+
+	private void growMotes() {
+		int capacity = 2 * motes.length;
+		motes = Arrays.copyOf(motes, capacity);
+		xs = Arrays.copyOf(xs, capacity);
+		ys = Arrays.copyOf(ys, capacity);
+		heats = Arrays.copyOf(heats, capacity);
+		anchors = Arrays.copyOf(anchors, capacity);
+		springs = Arrays.copyOf(springs, capacity);
+		numberOfSprings = Arrays.copyOf(numberOfSprings, capacity);
+	}
+
+	/**
+	 * Keep a coordinate within a mote from the borders of the area
+	 */
+
+	private static float clamp(float value, float size) {
+		float margin = SpriteCache.HALO_SIZE / 2;
+		return Math.max(margin, Math.min(size - margin, value));
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+
+/**
+ * An immutable picture of the positions of the motes on the canvas (their
+ * centers), published by ForceLayout: it can be read by any thread without
+ * locks. The version grows with each snapshot published.
+ * 
+ * @author user
+ */
+
+public class LayoutSnapshot {
+
+	private final long version;
+	private final int[] motes;
+	private final int[] xs;
+	private final int[] ys;
+	private final int numberOfMotes;
+
+	/**
+	 * Arrays are not copied: they must not be changed afterwards
+	 */
+
+	LayoutSnapshot(long version, int[] motes, int[] xs, int[] ys,
+			int numberOfMotes) {
+		this.version = version;
+		this.motes = motes;
+		this.xs = xs;
+		this.ys = ys;
+		this.numberOfMotes = numberOfMotes;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public int getNumberOfMotes() {
+		return numberOfMotes;
+	}
+
+	public int getMote(int i) {
+		return motes[i];
+	}
+
+	public int getX(int i) {
+		return xs[i];
+	}
+
+	public int getY(int i) {
+		return ys[i];
+	}
+}
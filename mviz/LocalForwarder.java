@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.tinyos.packet.*;
+import net.tinyos.util.*;
+
+/**
+ * A stand-in for the serial forwarder: it listens on a TCP port and sends
+ * to every client, using the protocol of the serial forwarder, the packets
+ * handed to packetReceived. Used on its own, it lets NioForwarderClient (or
+ * any other sf client) be tried without motes, forwarding the packets read
+ * from a simulated network or from a capture file; registered on a running
+ * source, it lets GUIs attach as viewers to a CollectorDaemon.
+ * 
+ * Each client has its own queue and thread, so a slow client never slows
+ * down the source nor the other clients: when its queue is full, packets
+ * are dropped for that client only, and counted. When forwarding a source
+ * with forward(), a client with a full queue is waited for, but only up to
+ * SLOW_CLIENT_TIMEOUT: then its packets are dropped without waiting until
+ * its queue has room again.
+ * 
+ * Usage: java net.tinyos.mviz.LocalForwarder PORT SOURCE [ROOT]
+ * 
+ * where SOURCE is "sim@..." (see NetworkSimulator) or "replay@..." (see
+ * CaptureReplay).
+ * 
+ * @author user
+ */
+
+public class LocalForwarder implements Runnable, PacketListenerIF {
+
+	/**
+	 * Packets waiting to be sent to each client
+	 */
+
+	private static final int QUEUE_CAPACITY = 4096;
+
+	/**
+	 * Max time forward() waits for a client with a full queue (ms)
+	 */
+
+	static final long SLOW_CLIENT_TIMEOUT = 1000;
+
+	private final ServerSocket server;
+	private final List<Client> clients = new CopyOnWriteArrayList<Client>();
+
+	/**
+	 * Packets dropped for clients too slow
+	 */
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	public LocalForwarder(int port) throws IOException {
+		this.server = new ServerSocket(port);
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Start accepting clients in the background
+	 */
+
+	public void start() {
+		Thread acceptor = new Thread(this, "LocalForwarder");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Accept clients: each one gets the handshake and then every packet
+	 * received from now on
+	 */
+
+	public void run() {
+		try {
+			while (!server.isClosed()) {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				Thread thread = new Thread(new Client(socket),
+						"LocalForwarder " + socket.getRemoteSocketAddress());
+				thread.setDaemon(true);
+				thread.start();
+			}
+		} catch (IOException ex) {
+			if (!server.isClosed())
+				System.out.println("Exception:" + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Queue the packet for all the clients; never waits
+	 */
+
+	public void packetReceived(byte[] packet) {
+		for (Client client : clients) {
+			if (!client.queue.offer(packet))
+				dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Read the packets from the source and send them to all the clients,
+	 * waiting for the slowest one, unless it's lagging (see above)
+	 */
+
+	public void forward(PacketSource source) throws IOException {
+		source.open(PrintStreamMessenger.err);
+		try {
+			while (true) {
+				byte[] packet = source.readPacket();
+				for (Client client : clients) {
+					if (client.queue.offer(packet, client.lagging ? 0
+							: SLOW_CLIENT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+						client.lagging = false;
+					} else {
+						client.lagging = true;
+						dropped.incrementAndGet();
+					}
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			source.close();
+		}
+	}
+
+	public void close() throws IOException {
+		server.close();
+	}
+
+	/**
+	 * A client: its thread does the handshake, then sends the queued
+	 * packets, flushing when the queue is empty
+	 */
+
+	private class Client implements Runnable {
+
+		private final Socket socket;
+		private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY);
+
+		/**
+		 * Set by forward() when the client didn't make room in time
+		 */
+
+		private boolean lagging;
+
+		Client(Socket socket) {
+			this.socket = socket;
+		}
+
+		public void run() {
+			try {
+				OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 65536);
+				out.write(NioForwarderClient.HANDSHAKE);
+				out.flush();
+				byte[] handshake = new byte[2];
+				new DataInputStream(socket.getInputStream()).readFully(handshake);
+				clients.add(this);
+				while (true) {
+					byte[] packet = queue.poll();
+					if (packet == null) {
+						out.flush();
+						packet = queue.take();
+					}
+					out.write(packet.length);
+					out.write(packet);
+				}
+			} catch (IOException ex) {
+			} catch (InterruptedException ex) {
+			} finally {
+				clients.remove(this);
+				queue.clear();
+				try {
+					socket.close();
+				} catch (IOException ignore) {
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: java net.tinyos.mviz.LocalForwarder PORT SOURCE [ROOT]");
+			System.exit(1);
+		}
+		int root = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+		PacketSource source = args[1].startsWith(CaptureReplay.PREFIX) ? new CaptureReplay(args[1])
+				: new NetworkSimulator(args[1], root);
+		LocalForwarder forwarder = new LocalForwarder(Integer.parseInt(args[0]));
+		forwarder.start();
+		forwarder.forward(source);
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+
+import java.util.Arrays;
+
+/**
+ * Map from long keys (e.g. keys of directed links, see LinkKey) to int
+ * values, without boxing.
+ * 
+ * Open addressing with linear probing: keys and values are stored in
+ * arrays, so neither lookups nor updates allocate (except when the table
+ * grows). Entries can't be removed. Entries can be visited with
+ *
+ * for (int slot = 0; slot < map.capacity(); slot++)
+ *     if (map.isUsed(slot)) ... map.keyAt(slot) ... map.valueAt(slot)
+ * 
+ * @author user
+ */
+
+public class LongIntMap {
+
+	/**
+	 * Value returned by get() for missing keys
+	 */
+
+	public static final int MISSING = -1;
+
+	private long[] keys;
+	private int[] values;
+	private boolean[] used;
+	private int size;
+	private int mask;
+
+	public LongIntMap() {
+		this(16);
+	}
+
+	public LongIntMap(int expected) {
+		int capacity = 16;
+		while (capacity * 3 < expected * 4)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Slot of the given key, or of the empty slot where it would go
+	 */
+
+	private int find(long key) {
+		int slot = mix(key) & mask;
+		while (used[slot] && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/**
+	 * The value associated to the key, or MISSING
+	 */
+
+	public int get(long key) {
+		int slot = find(key);
+		return used[slot] ? values[slot] : MISSING;
+	}
+
+	public boolean containsKey(long key) {
+		return used[find(key)];
+	}
+
+	/**
+	 * Associate the value to the key, replacing the previous one
+	 */
+
+	public void put(long key, int value) {
+		int slot = find(key);
+		if (!used[slot]) {
+			if ((size + 1) * 4 > keys.length * 3) {
+				grow();
+				slot = find(key);
+			}
+			used[slot] = true;
+			keys[slot] = key;
+			size++;
+		}
+		values[slot] = value;
+	}
+
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(keys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i]) {
+				int slot = find(oldKeys[i]);
+				used[slot] = true;
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Number of slots, to visit the entries
+	 */
+
+	public int capacity() {
+		return keys.length;
+	}
+
+	public boolean isUsed(int slot) {
+		return used[slot];
+	}
+
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	public int valueAt(int slot) {
+		return values[slot];
+	}
+
+	/**
+	 * Spread the bits of the key (finalizer of MurmurHash3)
+	 */
+
+	static int mix(long key) {
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+}
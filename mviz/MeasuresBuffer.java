@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+
+/**
+ * The last measures received, for the Measures Table: a ring of fixed
+ * capacity stored by column (x, y and z components of the acceleration,
+ * origin and timestamp), so that adding a measure never allocates and
+ * the oldest one is overwritten when the ring is full.
+ * 
+ * Measures are numbered in the order they're added, from 0; the number of
+ * measures ever added is published after each one, so readers on other
+ * threads read the measures before it without locks. The measures of the
+ * ring are those numbered from max(0, getWritten() - getCapacity()) on; a
+ * measure being overwritten while it's read may be seen half updated.
+ * 
+ * A MeasuresListener is told about the measures added, after they're
+ * published.
+ * 
+ * @author user
+ */
+
+public class MeasuresBuffer {
+
+	/**
+	 * Default number of measures kept
+	 */
+
+	static final int DEFAULT_CAPACITY = 1 << 18;
+
+	private final int mask;
+	private final short[] xs;
+	private final short[] ys;
+	private final short[] zs;
+	private final int[] origins;
+	private final long[] timestamps;
+	private volatile long written;
+	private volatile MeasuresListener listener;
+
+	/**
+	 * Create a ring holding the given number of measures, rounded up to
+	 * a power of two
+	 */
+
+	public MeasuresBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		mask = size - 1;
+		xs = new short[size];
+		ys = new short[size];
+		zs = new short[size];
+		origins = new int[size];
+		timestamps = new long[size];
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	public void setListener(MeasuresListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Add a measure, overwriting the oldest one if the ring is full
+	 */
+
+	public void add(short x, short y, short z, int origin, long timestamp) {
+		synchronized (this) {
+			int slot = (int) (written & mask);
+			xs[slot] = x;
+			ys[slot] = y;
+			zs[slot] = z;
+			origins[slot] = origin;
+			timestamps[slot] = timestamp;
+			written = written + 1;
+		}
+		notifyListener();
+	}
+
+	/**
+	 * Add the measures of another ring, from the oldest one, publishing
+	 * them all at once: readers see either none or all of them
+	 */
+
+	public void addAll(MeasuresBuffer from) {
+		addAll(from, false);
+	}
+
+	/**
+	 * Add the measures of another ring from the newest one, as above
+	 */
+
+	public void addAllReversed(MeasuresBuffer from) {
+		addAll(from, true);
+	}
+
+	private void addAll(MeasuresBuffer from, boolean reversed) {
+		synchronized (this) {
+			long last = from.getWritten();
+			long first = Math.max(0, last - from.getCapacity());
+			long next = written;
+			for (long i = first; i < last; i++) {
+				long measure = reversed ? first + last - 1 - i : i;
+				int slot = (int) (next++ & mask);
+				xs[slot] = from.getX(measure);
+				ys[slot] = from.getY(measure);
+				zs[slot] = from.getZ(measure);
+				origins[slot] = from.getOrigin(measure);
+				timestamps[slot] = from.getTimestamp(measure);
+			}
+			written = next;
+		}
+		notifyListener();
+	}
+
+	private void notifyListener() {
+		MeasuresListener l = listener;
+		if (l != null)
+			l.measuresAdded(this);
+	}
+
+	/**
+	 * Number of measures ever added
+	 */
+
+	public long getWritten() {
+		return written;
+	}
+
+	/**
+	 * Fields of the measure with the given number, which must be in the
+	 * ring
+	 */
+
+	public short getX(long measure) {
+		return xs[(int) (measure & mask)];
+	}
+
+	public short getY(long measure) {
+		return ys[(int) (measure & mask)];
+	}
+
+	public short getZ(long measure) {
+		return zs[(int) (measure & mask)];
+	}
+
+	public int getOrigin(long measure) {
+		return origins[(int) (measure & mask)];
+	}
+
+	public long getTimestamp(long measure) {
+		return timestamps[(int) (measure & mask)];
+	}
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.io.*;
+
+/**
+ * Pull parser of the results of a query on the Parse class of the
+ * measures: it reads the JSON object of the response straight from its
+ * stream, one token at a time, and adds each element of the array
+ * "results" to a MeasuresBuffer as soon as it's read, e.g.
+ * 
+ * {"results":[{"X":12,"Y":-3,"Z":980,"Origin":7,
+ *              "updatedAt":"2015-06-01T10:20:30.400Z",...},...]}
+ * 
+ * Given a MeasuresWatermark, the results it already covers are skipped,
+ * and it's advanced over the ones added.
+ * 
+ * Other members of the response and of its results are skipped. No object
+ * is built for the results: memory doesn't grow with the response, and
+ * the time taken is linear in its length.
+ * 
+ * @author user
+ */
+
+public class MeasuresParser {
+
+	/**
+	 * Members that a result must have
+	 */
+
+	private static final int X = 1;
+	private static final int Y = 2;
+	private static final int Z = 4;
+	private static final int ORIGIN = 8;
+	private static final int UPDATED_AT = 16;
+	private static final int ALL_MEMBERS = X | Y | Z | ORIGIN | UPDATED_AT;
+
+	private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+	private final InputStream in;
+	private final byte[] buffer = new byte[8192];
+	private int position;
+	private int end;
+	private long offset;
+
+	/**
+	 * The last string read
+	 */
+
+	private final StringBuilder string = new StringBuilder();
+
+	/**
+	 * The objectId of the result being read
+	 */
+
+	private final StringBuilder objectId = new StringBuilder();
+
+	/**
+	 * Watermark advanced over the results added, and what it covered
+	 * before this response
+	 */
+
+	private MeasuresWatermark watermark;
+	private MeasuresWatermark covered;
+
+	public MeasuresParser(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Read the whole response, adding its results to the given measures in
+	 * the order they're read; return the number of results read
+	 */
+
+	public int parse(MeasuresBuffer measures) throws IOException {
+		return parse(measures, null);
+	}
+
+	/**
+	 * As above, skipping the results covered by the given watermark, which
+	 * is advanced over the results added
+	 */
+
+	public int parse(MeasuresBuffer measures, MeasuresWatermark watermark)
+			throws IOException {
+		this.watermark = watermark;
+		covered = watermark == null ? null : new MeasuresWatermark(watermark);
+		int results = 0;
+		expect('{');
+		if (peek() != '}') {
+			do {
+				readString();
+				expect(':');
+				if ("results".contentEquals(string))
+					results += parseResults(measures);
+				else
+					skipValue();
+			} while (comma());
+		}
+		expect('}');
+		return results;
+	}
+
+	private int parseResults(MeasuresBuffer measures) throws IOException {
+		int results = 0;
+		expect('[');
+		if (peek() != ']') {
+			do {
+				parseResult(measures);
+				results++;
+			} while (comma());
+		}
+		expect(']');
+		return results;
+	}
+
+	private void parseResult(MeasuresBuffer measures) throws IOException {
+		int x = 0, y = 0, z = 0, origin = 0, members = 0;
+		long timestamp = 0;
+		objectId.setLength(0);
+		expect('{');
+		if (peek() != '}') {
+			do {
+				readString();
+				expect(':');
+				if ("X".contentEquals(string)) {
+					x = (int) readLong();
+					members |= X;
+				} else if ("Y".contentEquals(string)) {
+					y = (int) readLong();
+					members |= Y;
+				} else if ("Z".contentEquals(string)) {
+					z = (int) readLong();
+					members |= Z;
+				} else if ("Origin".contentEquals(string)) {
+					origin = (int) readLong();
+					members |= ORIGIN;
+				} else if ("updatedAt".contentEquals(string)) {
+					timestamp = readTimestamp();
+					members |= UPDATED_AT;
+				} else if ("objectId".contentEquals(string)) {
+					readString();
+					objectId.setLength(0);
+					objectId.append(string);
+				} else
+					skipValue();
+			} while (comma());
+		}
+		expect('}');
+		if (members != ALL_MEMBERS)
+			throw error("Incomplete result");
+		if (covered != null && covered.covers(timestamp, objectId))
+			return;
+		measures.add((short) x, (short) y, (short) z, origin, timestamp);
+		if (watermark != null)
+			watermark.advance(timestamp, objectId);
+	}
+
+	/**
+	 * Skip a value of any kind
+	 */
+
+	private void skipValue() throws IOException {
+		switch (peek()) {
+		case '{':
+			expect('{');
+			if (peek() != '}') {
+				do {
+					readString();
+					expect(':');
+					skipValue();
+				} while (comma());
+			}
+			expect('}');
+			break;
+		case '[':
+			expect('[');
+			if (peek() != ']') {
+				do {
+					skipValue();
+				} while (comma());
+			}
+			expect(']');
+			break;
+		case '"':
+			readString();
+			break;
+		default:
+
+			/**
+			 * A number, true, false or null
+			 */
+
+			int length = 0;
+			for (int b = peekByte(); b != -1 && b != ',' && b != '}' && b != ']'
+					&& !isWhitespace(b); b = peekByte()) {
+				position++;
+				length++;
+			}
+			if (length == 0)
+				throw error("Value expected");
+		}
+	}
+
+	/**
+	 * Read a number, as a long
+	 */
+
+	private long readLong() throws IOException {
+		boolean negative = peek() == '-';
+		if (negative)
+			position++;
+		long value = 0;
+		int digits = 0;
+		for (int b = peekByte(); b >= '0' && b <= '9'; b = peekByte()) {
+			value = value * 10 + (b - '0');
+			digits++;
+			position++;
+		}
+		if (digits == 0)
+			throw error("Number expected");
+		int b = peekByte();
+		if (b != '.' && b != 'e' && b != 'E')
+			return negative ? -value : value;
+
+		/**
+		 * A number with fraction or exponent: read it all and let Double
+		 * convert it
+		 */
+
+		string.setLength(0);
+		string.append(negative ? "-" : "").append(value);
+		for (; b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-'
+				|| (b >= '0' && b <= '9'); b = peekByte()) {
+			string.append((char) b);
+			position++;
+		}
+		try {
+			return (long) Double.parseDouble(string.toString());
+		} catch (NumberFormatException ex) {
+			throw error("Malformed number");
+		}
+	}
+
+	/**
+	 * Read a date of Parse, in UTC with milliseconds (e.g.
+	 * "2015-06-01T10:20:30.400Z"), as milliseconds since the epoch
+	 */
+
+	private long readTimestamp() throws IOException {
+		readString();
+		if (string.length() != 24 || string.charAt(4) != '-'
+				|| string.charAt(7) != '-' || string.charAt(10) != 'T'
+				|| string.charAt(13) != ':' || string.charAt(16) != ':'
+				|| string.charAt(19) != '.' || string.charAt(23) != 'Z')
+			throw error("Malformed date");
+		int year = digits(0, 4);
+		int month = digits(5, 7);
+		int day = digits(8, 10);
+
+		/**
+		 * Days since 1970-01-01 of the proleptic Gregorian calendar,
+		 * counting years from March so that February is the last month
+		 */
+
+		int y = month <= 2 ? year - 1 : year;
+		int era = Math.floorDiv(y, 400);
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		long days = era * 146097L + dayOfEra - 719468;
+		return days * MILLIS_PER_DAY + digits(11, 13) * 3600000L
+				+ digits(14, 16) * 60000L + digits(17, 19) * 1000L
+				+ digits(20, 23);
+	}
+
+	private int digits(int from, int to) throws IOException {
+		int value = 0;
+		for (int i = from; i < to; i++) {
+			char c = string.charAt(i);
+			if (c < '0' || c > '9')
+				throw error("Malformed date");
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Read a string into "string"
+	 */
+
+	private void readString() throws IOException {
+		expect('"');
+		string.setLength(0);
+		for (;;) {
+			int b = readByte();
+			if (b == '"')
+				return;
+			if (b == '\\')
+				readEscape();
+			else if (b < 0x80)
+				string.append((char) b);
+			else
+				readCodePoint(b);
+		}
+	}
+
+	private void readEscape() throws IOException {
+		int b = readByte();
+		switch (b) {
+		case '"':
+		case '\\':
+		case '/':
+			string.append((char) b);
+			break;
+		case 'b':
+			string.append('\b');
+			break;
+		case 'f':
+			string.append('\f');
+			break;
+		case 'n':
+			string.append('\n');
+			break;
+		case 'r':
+			string.append('\r');
+			break;
+		case 't':
+			string.append('\t');
+			break;
+		case 'u':
+			int c = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = Character.digit(readByte(), 16);
+				if (digit < 0)
+					throw error("Malformed escape");
+				c = c << 4 | digit;
+			}
+			string.append((char) c);
+			break;
+		default:
+			throw error("Malformed escape");
+		}
+	}
+
+	/**
+	 * Decode a character of more than one byte in UTF-8, given its first
+	 * byte
+	 */
+
+	private void readCodePoint(int first) throws IOException {
+		int following;
+		int c;
+		if (first >= 0xf0) {
+			following = 3;
+			c = first & 0x07;
+		} else if (first >= 0xe0) {
+			following = 2;
+			c = first & 0x0f;
+		} else {
+			following = 1;
+			c = first & 0x1f;
+		}
+		for (int i = 0; i < following; i++)
+			c = c << 6 | (readByte() & 0x3f);
+		if (!Character.isValidCodePoint(c))
+			throw error("Malformed UTF-8");
+		string.appendCodePoint(c);
+	}
+
+	/**
+	 * Read the given character, after white space
+	 */
+
+	private void expect(char c) throws IOException {
+		if (peek() != c)
+			throw error("'" + c + "' expected");
+		position++;
+	}
+
+	/**
+	 * Read the comma between two values, if any
+	 */
+
+	private boolean comma() throws IOException {
+		if (peek() != ',')
+			return false;
+		position++;
+		return true;
+	}
+
+	/**
+	 * Next character after white space, not read yet; -1 at the end of
+	 * the stream
+	 */
+
+	private int peek() throws IOException {
+		int b = peekByte();
+		while (isWhitespace(b)) {
+			position++;
+			b = peekByte();
+		}
+		return b;
+	}
+
+	private static boolean isWhitespace(int b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+	}
+
+	private int peekByte() throws IOException {
+		if (position == end && !fill())
+			return -1;
+		return buffer[position] & 0xff;
+	}
+
+	private int readByte() throws IOException {
+		if (position == end && !fill())
+			throw error("Unexpected end");
+		return buffer[position++] & 0xff;
+	}
+
+	private boolean fill() throws IOException {
+		offset += end;
+		position = 0;
+		end = Math.max(0, in.read(buffer, 0, buffer.length));
+		return end > 0;
+	}
+
+	private IOException error(String message) {
+		return new IOException(message + " at byte " + (offset + position));
+	}
+}
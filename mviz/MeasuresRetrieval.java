@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.awt.event.*;
+import java.io.*;
+import java.net.URLEncoder;
+import java.util.concurrent.*;
+
+import javax.swing.SwingWorker;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.*;
+import org.apache.http.impl.client.*;
+
+/**
+ * Retrieval of the measures updated on Parse, for the Measures Table: the
+ * HTTP GET requests are made and their responses decoded on a worker
+ * thread, into a MeasuresBuffer of its own, so the EDT never waits for the
+ * network. Responses are decoded while they're read, by a MeasuresParser.
+ * When the retrieval is over, the measures are added to the measures of
+ * the table all at once, on the EDT (see done).
+ * 
+ * The measures retrieved so far are described by a MeasuresWatermark. The
+ * first retrieval asks for the last "limit" measures updated; the next
+ * ones ask only for the measures updated since the watermark, oldest
+ * first, a page of PAGE_SIZE measures at a time, skipping the ones already
+ * retrieved. The watermark is advanced with the measures added to the
+ * table.
+ * 
+ * The progress (0 to 100) is the part of the response read, when its length
+ * is known. The retrieval can be stopped at any time, and it's stopped
+ * anyway after "timeout" milliseconds: the request is aborted, so that the
+ * worker thread doesn't stay blocked on the connection, and no measure is
+ * added.
+ * 
+ * @author user
+ */
+
+public class MeasuresRetrieval extends SwingWorker<MeasuresBuffer, Void> {
+
+	/**
+	 * Default time allowed to a retrieval, in milliseconds
+	 */
+
+	static final int DEFAULT_TIMEOUT = 30000;
+
+	/**
+	 * Measures asked in each page since the watermark: the most Parse
+	 * returns for a query
+	 */
+
+	static final int PAGE_SIZE = 1000;
+
+	private final String url;
+	private final int limit;
+	private final String applicationId;
+	private final String restApiKey;
+	private final MeasuresBuffer target;
+	private final MeasuresWatermark watermark;
+	private final int timeout;
+	private final javax.swing.Timer watchdog;
+	private volatile boolean timedOut;
+
+	/**
+	 * The watermark advanced on the worker thread, and the request being
+	 * made
+	 */
+
+	private final MeasuresWatermark retrieved;
+	private volatile HttpGet request;
+
+	/**
+	 * Create the retrieval of the measures updated since the given
+	 * watermark, which will be added to "target"; if the watermark is
+	 * empty, the last "limit" measures are retrieved, from the given URL
+	 * followed by the limit. Must be called on the EDT
+	 */
+
+	public MeasuresRetrieval(String url, int limit, String applicationId,
+			String restApiKey, MeasuresBuffer target,
+			MeasuresWatermark watermark, int timeout) {
+		this.url = url;
+		this.limit = limit;
+		this.applicationId = applicationId;
+		this.restApiKey = restApiKey;
+		this.target = target;
+		this.watermark = watermark;
+		this.timeout = timeout;
+		retrieved = new MeasuresWatermark(watermark);
+		watchdog = new javax.swing.Timer(timeout, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				timedOut = true;
+				stop();
+			}
+		});
+		watchdog.setRepeats(false);
+	}
+
+	/**
+	 * Start the retrieval; must be called on the EDT
+	 */
+
+	public void start() {
+		watchdog.start();
+		execute();
+	}
+
+	/**
+	 * Stop the retrieval, if it's not over yet
+	 */
+
+	public void stop() {
+		if (cancel(true) && request != null)
+			request.abort();
+	}
+
+	/**
+	 * Make the requests and decode the responses, on the worker thread
+	 */
+
+	@Override
+	protected MeasuresBuffer doInBackground() throws IOException {
+		CloseableHttpClient httpClient = HttpClients.createDefault();
+		try {
+
+			/**
+			 * Results of the first retrieval are the newest first: they're
+			 * kept in the order they're read, and added to the target the
+			 * other way round (see done). There's no point in keeping more
+			 * than the target holds
+			 */
+
+			if (watermark.isEmpty()) {
+				MeasuresBuffer measures = new MeasuresBuffer(Math.max(1,
+						Math.min(limit, target.getCapacity())));
+				query(httpClient, url + limit, measures, true);
+				return measures;
+			}
+
+			/**
+			 * Then pages of results since the watermark, oldest first,
+			 * until a page isn't full, or brings nothing new (more than a
+			 * page of measures updated at the same millisecond)
+			 */
+
+			String classUrl = url.indexOf('?') < 0 ? url : url.substring(0,
+					url.indexOf('?'));
+			MeasuresBuffer measures = new MeasuresBuffer(PAGE_SIZE);
+			int results;
+			long added;
+			do {
+				if (isCancelled())
+					throw new InterruptedIOException("Retrieval cancelled");
+				measures = ensureRoom(measures);
+				long written = measures.getWritten();
+				results = query(httpClient, classUrl + "?where="
+						+ URLEncoder.encode(retrieved.toWhere(), "UTF-8")
+						+ "&order=updatedAt&limit=" + PAGE_SIZE, measures,
+						false);
+				added = measures.getWritten() - written;
+			} while (results == PAGE_SIZE && added > 0);
+			return measures;
+		} finally {
+			httpClient.close();
+		}
+	}
+
+	/**
+	 * Make a request, adding the results not retrieved yet to the given
+	 * measures; return the number of results
+	 */
+
+	private int query(CloseableHttpClient httpClient, String url,
+			MeasuresBuffer measures, boolean showProgress) throws IOException {
+		request = new HttpGet(url);
+		request.addHeader(DDocument.parseApplicationIdHeader, applicationId);
+		request.addHeader(DDocument.parseRESTApiKeyHeader, restApiKey);
+		request.setConfig(RequestConfig.custom().setConnectTimeout(timeout)
+				.setConnectionRequestTimeout(timeout)
+				.setSocketTimeout(timeout).build());
+		if (isCancelled())
+			throw new InterruptedIOException("Retrieval cancelled");
+		CloseableHttpResponse response = httpClient.execute(request);
+		try {
+			int status = response.getStatusLine().getStatusCode();
+			if (status / 100 != 2)
+				throw new IOException("Retrieval failed: "
+						+ response.getStatusLine());
+			HttpEntity entity = response.getEntity();
+			return new MeasuresParser(new ProgressStream(entity.getContent(),
+					showProgress ? entity.getContentLength() : -1)).parse(
+					measures, retrieved);
+		} finally {
+			response.close();
+		}
+	}
+
+	/**
+	 * Make sure there's room for another page in the given measures, up
+	 * to the capacity of the target: if not, return larger measures with
+	 * the same content
+	 */
+
+	private MeasuresBuffer ensureRoom(MeasuresBuffer measures) {
+		int capacity = measures.getCapacity();
+		if (measures.getWritten() + PAGE_SIZE <= capacity
+				|| capacity >= target.getCapacity())
+			return measures;
+		MeasuresBuffer larger = new MeasuresBuffer(Math.min(capacity * 2,
+				target.getCapacity()));
+		larger.addAll(measures);
+		return larger;
+	}
+
+	/**
+	 * Stream of the body of the response, publishing the progress as it's
+	 * read, which stops reading when the retrieval is cancelled
+	 */
+
+	private class ProgressStream extends FilterInputStream {
+
+		private final long length;
+		private long read;
+
+		ProgressStream(InputStream in, long length) {
+			super(in);
+			this.length = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (isCancelled())
+				throw new InterruptedIOException("Retrieval cancelled");
+			int n = super.read(b, off, len);
+			if (n > 0 && length > 0) {
+				read += n;
+				setProgress((int) Math.min(100, read * 100 / length));
+			}
+			return n;
+		}
+	}
+
+	/**
+	 * Add the measures retrieved to the target and advance the watermark,
+	 * on the EDT
+	 */
+
+	@Override
+	protected void done() {
+		watchdog.stop();
+		if (isCancelled()) {
+			System.out.println(timedOut ? "Retrieval timed out after "
+					+ timeout + " ms" : "Retrieval cancelled");
+			return;
+		}
+		try {
+			MeasuresBuffer measures = get();
+			if (watermark.isEmpty())
+				target.addAllReversed(measures);
+			else
+				target.addAll(measures);
+			watermark.set(retrieved);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException ex) {
+			System.out.println("Exception:" + ex.getCause().getMessage());
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * How far the measures retrieved from Parse go: the highest "updatedAt"
+ * seen, and the objectId of the measures seen which were updated at that
+ * very millisecond, so that a query for the measures updated from then
+ * on ($gte) doesn't miss those updated at the same time but not seen yet,
+ * and the ones seen can be skipped.
+ * 
+ * @author user
+ */
+
+public class MeasuresWatermark {
+
+	private long updatedAt = Long.MIN_VALUE;
+	private final Set<String> objectIds = new HashSet<String>();
+
+	public MeasuresWatermark() {
+	}
+
+	public MeasuresWatermark(MeasuresWatermark other) {
+		set(other);
+	}
+
+	public void set(MeasuresWatermark other) {
+		updatedAt = other.updatedAt;
+		objectIds.clear();
+		objectIds.addAll(other.objectIds);
+	}
+
+	/**
+	 * True if no measure has been seen yet
+	 */
+
+	public boolean isEmpty() {
+		return updatedAt == Long.MIN_VALUE;
+	}
+
+	public long getUpdatedAt() {
+		return updatedAt;
+	}
+
+	/**
+	 * True if the measure with the given update time and objectId is
+	 * already covered
+	 */
+
+	public boolean covers(long updatedAt, CharSequence objectId) {
+		return updatedAt < this.updatedAt || updatedAt == this.updatedAt
+				&& objectIds.contains(objectId.toString());
+	}
+
+	/**
+	 * Cover the measure with the given update time and objectId too
+	 */
+
+	public void advance(long updatedAt, CharSequence objectId) {
+		if (updatedAt < this.updatedAt)
+			return;
+		if (updatedAt > this.updatedAt) {
+			this.updatedAt = updatedAt;
+			objectIds.clear();
+		}
+		objectIds.add(objectId.toString());
+	}
+
+	/**
+	 * The constraint of a Parse query for the measures updated from the
+	 * watermark on, e.g.
+	 * 
+	 * {"updatedAt":{"$gte":{"__type":"Date","iso":"2015-06-01T10:20:30.400Z"}}}
+	 */
+
+	public String toWhere() {
+		DateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return "{\"updatedAt\":{\"$gte\":{\"__type\":\"Date\",\"iso\":\""
+				+ iso.format(new Date(updatedAt)) + "\"}}}";
+	}
+}
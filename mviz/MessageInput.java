@@ -37,59 +37,110 @@ import net.tinyos.packet.*;
 import net.tinyos.util.*;
 import node.SensorsDataMsg;
 
-import org.apache.http.client.methods.*;
-import org.apache.http.impl.client.*;
-import org.apache.http.entity.*;
-
 /**
  * This class represents the link between DDocument (GUI part) and BuildSource,
  * which is in charge of creating an interface to communicate with motes
  * (through serial port,TCP connection,etc...). Messages from motes are
- * collected and delivered to DDocument by mean of ValueSetEvent and
- * LinkSetEvent. Modified to include REST Client in order to upload values on
- * Parse repository; implements MessageListener interface
+ * collected and delivered to DDocument through the TopologyModel, by mean of
+ * one TopologyDelta for each message. Modified to hand values to a ParseUploader in order to upload
+ * them on Parse repository; implements MessageListener interface.
+ * It doesn't depend on the GUI: without a TopologyModel (see CollectorDaemon)
+ * values are only uploaded, without a ParseUploader (a GUI attached as a
+ * viewer) the topology is only shown
  * 
  * @author user
  * @see MessageListener
  */
 
-public class MessageInput implements net.tinyos.message.MessageListener {
+public class MessageInput implements net.tinyos.message.MessageListener,
+		PacketBatchListener {
 
 	private MoteIF moteIF;
-	private DDocument document;
-	private int[] valuesToUpload;
-	private ArrayList<Integer> motes;
+	private PhoenixSource phoenix;
+
+	/**
+	 * Client of serial forwarders used instead of MoteIF for sources
+	 * "nio@..."
+	 */
+
+	private NioForwarderClient nioClient;
+
+	/**
+	 * Listeners of the raw packets received (e.g. a CaptureRecorder)
+	 */
+
+	private final List<PacketListenerIF> packetListeners = new ArrayList<PacketListenerIF>();
+
+	/**
+	 * ID of the root mote, for sources not telling it
+	 */
+
+	private int rootMote;
 	private SensorsDataMsg messagesFormat;
 
+	/**
+	 * View used to read the fields of the messages received, reused for
+	 * every message
+	 */
+
+	private final AccelerationMsgView view = new AccelerationMsgView();
+
+	/**
+	 * The upload stage: values are queued here and sent to Parse by its
+	 * own thread; null if values are not uploaded
+	 */
+
+	private ParseUploader uploader;
+
+	/**
+	 * The model of the topology of the network; null if not shown
+	 */
+
+	private TopologyModel topology;
+
+	/**
+	 * The last measures received, shown live by the GUI; null if not shown
+	 */
+
+	private MeasuresBuffer measures;
+
 	/**
 	 * Constructor for the MessageInput class
 	 * 
-	 * @param packetVector
 	 * @param commSource
-	 * @param doc
+	 * @param rootMote
+	 * @param topology
+	 * @param uploader
 	 */
 
-	public MessageInput(String commSource, DDocument doc) {
+	public MessageInput(String commSource, int rootMote, TopologyModel topology, ParseUploader uploader) {
 
 		/**
-		 * Set the reference to the main container (DDocument) where data
-		 * collected from motes will be displayed
+		 * Set the ID of the root mote, to which the last link of each
+		 * path leads
 		 */
 
-		document = doc;
+		this.rootMote = rootMote;
 
 		/**
-		 * Create a new instance from the class "SensorDataMsg", which
-		 * represents allowed format of messages from motes
+		 * Set the reference to the model of the topology, which is updated
+		 * with the path of each message
 		 */
 
-		messagesFormat = new SensorsDataMsg();
+		this.topology = topology;
+
+		/**
+		 * Set the reference to the uploader of values
+		 */
+
+		this.uploader = uploader;
 
 		/**
-		 * Initialize the list of motes
+		 * Create a new instance from the class "SensorDataMsg", which
+		 * represents allowed format of messages from motes
 		 */
 
-		motes=new ArrayList<Integer>();
+		messagesFormat = new SensorsDataMsg();
 		try {
 
 			/**
@@ -122,14 +173,41 @@ public class MessageInput implements net.tinyos.message.MessageListener {
 	 */
 
 	private void createSource(String source) {
-		if (source != null) {
+		if (source != null && source.startsWith(NioForwarderClient.PREFIX)) {
+
+			/**
+			 * Connect directly to one or more serial forwarders: packets
+			 * are delivered in batches to packetsReceived, without MoteIF
+			 */
+
+			nioClient = new NioForwarderClient(source, rootMote,
+					this, PrintStreamMessenger.err);
+			return;
+		}
+		if (source != null && source.startsWith(NetworkSimulator.PREFIX)) {
+
+			/**
+			 * Create a simulated network of motes: packets are delivered
+			 * through MoteIF as for a real network
+			 */
+
+			phoenix = BuildSource.makePhoenix(new NetworkSimulator(source,
+					rootMote), PrintStreamMessenger.err);
+		} else if (source != null && source.startsWith(CaptureReplay.PREFIX)) {
+
+			/**
+			 * Play back packets recorded in a capture file
+			 */
+
+			phoenix = BuildSource.makePhoenix(new CaptureReplay(source),
+					PrintStreamMessenger.err);
+		} else if (source != null) {
 
 			/**
 			 * Create source using specified source
 			 */
 
-			moteIF = new MoteIF(BuildSource.makePhoenix(source,
-					PrintStreamMessenger.err));
+			phoenix = BuildSource.makePhoenix(source, PrintStreamMessenger.err);
 		} else {
 
 			/**
@@ -140,9 +218,34 @@ public class MessageInput implements net.tinyos.message.MessageListener {
 			 * @see BuildSource
 			 */
 
-			moteIF = new MoteIF(
-					BuildSource.makePhoenix(PrintStreamMessenger.err));
+			phoenix = BuildSource.makePhoenix(PrintStreamMessenger.err);
 		}
+		moteIF = new MoteIF(phoenix);
+	}
+
+	/**
+	 * Hand all the raw packets received from the source to the listener,
+	 * e.g. to record them in a capture file or to relay them to viewers;
+	 * listeners have to be added before start()
+	 * 
+	 * @param listener
+	 */
+
+	public void addPacketListener(PacketListenerIF listener) {
+		packetListeners.add(listener);
+		if (phoenix != null)
+			phoenix.registerPacketListener(listener);
+	}
+
+	/**
+	 * Add the values of each message received to the given measures; it
+	 * has to be set before start()
+	 * 
+	 * @param measures
+	 */
+
+	public void setMeasures(MeasuresBuffer measures) {
+		this.measures = measures;
 	}
 
 	/**
@@ -153,10 +256,20 @@ public class MessageInput implements net.tinyos.message.MessageListener {
 	 */
 
 	private void addMsgType(Message msg) {
-		moteIF.registerListener(msg, this);
+		if (moteIF != null)
+			moteIF.registerListener(msg, this);
 	}
 
 	public void start() {
+		if (uploader != null)
+			uploader.start();
+		if (nioClient != null) {
+			try {
+				nioClient.start();
+			} catch (IOException ex) {
+				System.out.println(ex.getMessage());
+			}
+		}
 	}
 
 	/**
@@ -170,211 +283,127 @@ public class MessageInput implements net.tinyos.message.MessageListener {
 
 		/**
 		 * Check whether the format of the received message is the one defined
-		 * by SensorsDataMsg: if so, read the message, otherwise ignore it
+		 * by SensorsDataMsg: if so, read the message, otherwise ignore it.
+		 * Fields are read through a reusable view over the bytes of the
+		 * message, so nothing is allocated here for each message
 		 */
 
-		try {
-
-			SensorsDataMsg msg = (SensorsDataMsg) message;
-
-			/**
-			 * Notify the main class that a path exists between a "producer mote" and the root mote
-			 */
-
-			document.setNewPath(msg.get_message_path());
-
-			/**
-			 * Extract the number of motes along the path,from the source to the
-			 * sink for the current message
-			 */
-
-			int hopcount = msg.get_hopcount();
-
-			/**
-			 * Initialize the vector with values to upload on Parse, namely: - x
-			 * component of acceleration - y component of acceleration - z
-			 * component of acceleration - source of the message - list of IDs
-			 * of motes along the path from the source to the sink
-			 */
-
-			valuesToUpload = new int[4];
-
-			/**
-			 * Extract id of the origin of the message
-			 */
-
-			int origin = msg.getElement_message_path(0);
-
-			/**
-			 * Fill the array "valuesToSend" with values to be sent to be
-			 * upload to Parse Repository
-			 */
-			
-			/**
-			 * First add values of acceleration
-			 */
-
-			Short x = msg.get_x_acceleration();
-			valuesToUpload[0] = x;
-			Short y = msg.get_y_acceleration();
-			valuesToUpload[1] = y;
-			Short z = msg.get_z_acceleration();
-			valuesToUpload[2] = z;
-			
-			/**
-			 * Then add ID of the sender
-			 */
-			
-			valuesToUpload[3]=origin;
-			
-			/**
-			 * Update data received on Parse
-			 */
-
-			updateOnParse();
-
-			/**
-			 * For each segment of the path of the current message,
-			 * create a new event and post it to the AWT thread:
-			 * when this will be processed the tables and the canvas
-			 * will be updated depending on the data contained in the
-			 * message received
-			 */
-
-			/**
-			 * The number of links for a message that was processed
-			 * by n motes is n-1
-			 */
-
-			for (int i = 0; i < hopcount-1; i++) {
-
-				/**
-				 * The quality of the link
-				 */
-
-				int linkQuality = msg.getElement_path_quality(i);
-
-				/**
-				 * "Producers" (motes with accelerometer, leaves of the collection
-				 * tree) will have the border of the icon colored in order to 
-				 * be distinguishable from the other motes, so set a corresponding
-				 * property of the event for the first link of the path
-				 */
-
-				if(i==0){
-
-					/**
-					 * Last argument of the constructor tells if the mote is a producer
-					 */
-
-					document.setLinkValue(linkQuality, msg.getElement_message_path(i),msg.getElement_message_path(i+1),true);
-				}
-				else{
-
-					/**
-					 * Last link is between the root node and its child
-					 */
-
-					if(i!=hopcount-2){
-						//document.setLinkValue(msg.getElement_message_path(i), msg.getElement_message_path(i+1),new Integer(msg.getElement_message_path(i)).toString()+"->"+new Integer(msg.getElement_message_path(i+1)).toString(),linkQuality);
-
-						/**
-						 * Notify the main class that a link exists between this couple of motes
-						 */
-
-						document.setLinkValue(linkQuality, msg.getElement_message_path(i),msg.getElement_message_path(i+1),false);
-					}
-					else{
-						//document.setLinkValue(msg.getElement_message_path(i), document.rootMote,new Integer(msg.getElement_message_path(i)).toString()+"->"+new Integer(document.rootMote).toString(),linkQuality);
+		if (!(message instanceof SensorsDataMsg)
+				|| !view.wrap(message.dataGet(), message.baseOffset())) {
+			return;
+		}
+		process(rootMote);
+	}
 
-						/**
-						 * Notify the main class that a link exists between this couple of motes
-						 * (and one of them is the root mote)
-						 */
+	/**
+	 * This is the callback function invoked by NioForwarderClient with the
+	 * raw packets read from a serial forwarder: packets carrying an
+	 * acceleration message are read in place, the others are ignored
+	 */
 
-						document.setLinkValue(linkQuality, msg.getElement_message_path(i),document.rootMote,false);
-					}
-				}
+	public void packetsReceived(int rootMote, byte[] buffer, int[] offsets,
+			int[] lengths, int count) {
+		for (int i = 0; i < count; i++) {
+			if (!packetListeners.isEmpty()) {
+				byte[] packet = Arrays.copyOfRange(buffer, offsets[i],
+						offsets[i] + lengths[i]);
+				for (PacketListenerIF listener : packetListeners)
+					listener.packetReceived(packet);
 			}
-		}
-		catch (ClassCastException e) {
-
-			/**
-			 * Do nothing, ignore the message
-			 */
+			if (view.wrapSerialPacket(buffer, offsets[i], lengths[i]))
+				process(rootMote);
 		}
 	}
 
 	/**
-	 * Update values for acceleration on the repository
-	 * at Parse
+	 * Deliver the message the view points to: queue its values for the
+	 * upload, add them to the measures shown and notify the path and its
+	 * links to DDocument
 	 */
 
-	void updateOnParse() {
-		String[] parameters = { "X", "Y", "Z","Origin"};
-		try {
-
-			/**
-			 * Client to make http requests
-			 */
+	private void process(int rootMote) {
+		long time = System.currentTimeMillis();
 
-			CloseableHttpClient httpclient = HttpClients.createDefault();
+		/**
+		 * Queue data received for the upload on Parse, namely: x, y and z
+		 * components of acceleration and the ID of the origin of the
+		 * message; this never waits for the network
+		 */
 
-			/**
-			 * Set URL of the request
-			 */
+		if (uploader != null) {
+			uploader.enqueue(view.getXAcceleration(), view.getYAcceleration(),
+					view.getZAcceleration(), view.getMessagePath(0));
+		}
+		if (measures != null) {
+			measures.add(view.getXAcceleration(), view.getYAcceleration(),
+					view.getZAcceleration(), view.getMessagePath(0), time);
+		}
+		if (topology != null) {
+			TopologyDelta delta = topology.obtain();
+			if (delta != null) {
+				toDelta(view, rootMote, time, delta);
+				topology.submit(delta);
+			}
+		}
+	}
 
-			HttpPost httpPost = new HttpPost(document.parsePostURL);
+	/**
+	 * Describe the message the view points to as a new delta of the
+	 * topology
+	 */
 
-			/**
-			 * Add headers to the post request, as needed to use
-			 * the Parse API
-			 */
+	static TopologyDelta toDelta(AccelerationMsgView view, int rootMote, long time) {
+		TopologyDelta delta = new TopologyDelta();
+		toDelta(view, rootMote, time, delta);
+		return delta;
+	}
 
-			httpPost.addHeader("X-Parse-Application-Id",document.parseApplicationId);
-			httpPost.addHeader("X-Parse-REST-API-Key",document.parseRESTApiKey);
+	/**
+	 * Describe the message the view points to with the given delta of the
+	 * topology, which is filled in place
+	 */
 
-			/**
-			 * Create the body of the POST request:the syntax to use with PARSE API
-			 * is the following:
-			 * 
-			 * {"PARAMETER1":VALUE1,"PARAMETER2":VALUE2,"PARAMETER3":VALUE3,...}
-			 */
+	static void toDelta(AccelerationMsgView view, int rootMote, long time,
+			TopologyDelta delta) {
 
-			String requestBody = "{";
-			for (int i = 0; i < 4; i++) {
-				requestBody += "\"" + String.valueOf(parameters[i]) + "\""
-						+ ": " + Integer.toString(valuesToUpload[i]) + ",";
-			}
+		/**
+		 * Extract the number of motes along the path,from the source to the
+		 * sink for the current message
+		 */
 
-			/**
-			 * Remove last comma
-			 */
+		int hopcount = Math.min(view.getHopcount(), AccelerationMsgView.NUMBER_OF_MOTES);
 
-			requestBody = requestBody.substring(0,
-					requestBody.length() - 1);
+		/**
+		 * The number of links for a message that was processed
+		 * by n motes is n-1
+		 */
 
-			/**
-			 * Close the body
-			 */
+		int links = Math.max(0, hopcount-1);
 
-			requestBody += "}";
+		/**
+		 * Describe the path from the "producer mote" to the root mote and
+		 * all the segments of the path of the current message with a single
+		 * delta and hand it to the model of the topology: deltas are merged
+		 * and shown by the GUI once per frame
+		 */
 
-			/**
-			 * Set the body
-			 */
-			
-			StringEntity myEntity = new StringEntity(requestBody,ContentType.create("application/json", "UTF-8"));
-			httpPost.setEntity(myEntity);
+		view.getMessagePath(delta.getPath());
+		delta.setTime(time);
+		delta.setSize(links);
+		for (int i = 0; i < links; i++) {
 
 			/**
-			 * Make the request
+			 * Last link is between the root node and its child.
+			 * 
+			 * "Producers" (motes with accelerometer, leaves of the
+			 * collection tree) will have the border of the icon colored in
+			 * order to be distinguishable from the other motes, so mark the
+			 * start of the first link of the path
 			 */
 
-			CloseableHttpResponse response = httpclient.execute(httpPost);
-		}
-		catch (IOException ex) {
-			System.out.println("Exception:" + ex.getMessage());
+			delta.setLink(i, view.getMessagePath(i),
+					(i != 0 && i == hopcount-2) ? rootMote : view.getMessagePath(i+1),
+					view.getPathQuality(i), i == 0);
 		}
 	}
 }
@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+import net.tinyos.packet.*;
+import net.tinyos.util.*;
+import node.SensorsDataMsg;
+
+/**
+ * A simulated collection tree of motes, to be used instead of a real
+ * network in order to test the application under load: it's a PacketSource,
+ * so packets are delivered through the usual PhoenixSource and MoteIF to
+ * MessageInput.messageReceived, exactly as if they were read from the serial
+ * port of the root mote.
+ * 
+ * The simulator is selected with a source like
+ * 
+ * sim@producers=20,forwarders=10,shape=random,rate=2000
+ * 
+ * where the options (all optional) are:
+ * - producers: number of motes with accelerometer (leaves of the tree)
+ * - forwarders: number of motes forwarding messages
+ * - shape: "random", "chain" (forwarders in a line) or "star" (all the
+ *   forwarders are children of the root)
+ * - hops: max number of motes along a path, root excluded; at most the
+ *   size of "message_path" (NUMBER_OF_MOTES in Network.h)
+ * - rate: messages per second from the whole network, 0 for as fast as
+ *   possible
+ * - drift: max variation of the quality of a link at each message
+ * - churn: probability for each message that one mote changes its parent
+ * - seed: seed of the random generator, to repeat the same run
+ * 
+ * As on the real motes, the payload of a message contains the IDs of the
+ * motes it went through (root excluded) and, for each of them, the quality
+ * of the link to its parent.
+ * 
+ * @author user
+ */
+
+public class NetworkSimulator implements PacketSource {
+
+	/**
+	 * Prefix of the sources handled by the simulator
+	 */
+
+	static final String PREFIX = "sim@";
+
+	/**
+	 * Fields of the header of serial packets (see AccelerationMsgView for
+	 * the layout)
+	 */
+
+	static final int BROADCAST_ADDRESS = 0xffff;
+	static final int DEFAULT_GROUP = 0x22;
+
+	/**
+	 * Range of values for the quality of links (as given by the link
+	 * estimator: 10 is a perfect link)
+	 */
+
+	static final int MIN_QUALITY = 10;
+	static final int MAX_QUALITY = 255;
+
+	/**
+	 * Period between two reports on the number of messages generated
+	 */
+
+	static final long REPORT_PERIOD = 10000;
+
+	private final String name;
+	private final int rootMote;
+	private final int producers;
+	private final int forwarders;
+	private final int maxHops;
+	private final int rate;
+	private final int drift;
+	private final double churn;
+	private final Random rand;
+
+	/**
+	 * The motes of the simulated network: producers come first, then the
+	 * forwarders. For each of them, its ID, its parent (index in these
+	 * arrays, -1 for the root), the quality of the link to the parent and its
+	 * level (number of motes from it to the root, root excluded)
+	 */
+
+	private final int[] ids;
+	private final int[] parents;
+	private final int[] qualities;
+	private final int[] levels;
+
+	/**
+	 * Forwarders grouped by level
+	 */
+
+	private final int[][] forwardersByLevel;
+
+	/**
+	 * Last acceleration of each producer (values are a random walk)
+	 */
+
+	private final short[][] accelerations;
+
+	private Messenger messages;
+	private volatile boolean open;
+	private long nextPacket;
+	private long generated;
+	private long lastReport;
+	private long lastReportCount;
+
+	/**
+	 * Create a simulated network from the options given after the prefix
+	 * "sim@" (see above)
+	 */
+
+	public NetworkSimulator(String options, int rootMote) {
+		Properties p = new Properties();
+		if (options.startsWith(PREFIX))
+			options = options.substring(PREFIX.length());
+		StringTokenizer tokens = new StringTokenizer(options, ",");
+		while (tokens.hasMoreTokens()) {
+			String token = tokens.nextToken().trim();
+			int equal = token.indexOf('=');
+			if (equal > 0)
+				p.setProperty(token.substring(0, equal).trim(), token.substring(equal + 1).trim());
+		}
+		this.name = PREFIX + options;
+		this.rootMote = rootMote;
+		producers = Math.max(1, Integer.parseInt(p.getProperty("producers", "8")));
+		forwarders = Math.max(0, Integer.parseInt(p.getProperty("forwarders", "4")));
+		maxHops = Math.max(1, Math.min(SensorsDataMsg.numElements_message_path(),
+				Integer.parseInt(p.getProperty("hops", String.valueOf(SensorsDataMsg.numElements_message_path())))));
+		rate = Math.max(0, Integer.parseInt(p.getProperty("rate", "1000")));
+		drift = Math.max(0, Integer.parseInt(p.getProperty("drift", "2")));
+		churn = Double.parseDouble(p.getProperty("churn", "0.001"));
+		rand = p.getProperty("seed") != null ? new Random(Long.parseLong(p.getProperty("seed"))) : new Random();
+		String shape = p.getProperty("shape", "random");
+
+		int motes = producers + forwarders;
+		ids = new int[motes];
+		parents = new int[motes];
+		qualities = new int[motes];
+		levels = new int[motes];
+		accelerations = new short[producers][3];
+
+		/**
+		 * Assign IDs from 1, skipping the one of the root
+		 */
+
+		int id = 1;
+		for (int i = 0; i < motes; i++) {
+			if (id == rootMote)
+				id++;
+			ids[i] = id++;
+			qualities[i] = MIN_QUALITY + rand.nextInt(30);
+		}
+
+		/**
+		 * Assign a level to each forwarder depending on the shape of the
+		 * tree; a producer always has a level greater than its parent, so
+		 * forwarders can be at most at level maxHops-1
+		 */
+
+		int maxLevel = Math.max(0, maxHops - 1);
+		int[] perLevel = new int[maxLevel + 1];
+		int deepest = 0;
+		for (int f = 0; f < forwarders; f++) {
+			int level;
+			if (maxLevel == 0) {
+				level = 0;
+			} else if (shape.equals("chain")) {
+				level = Math.min(f + 1, maxLevel);
+			} else if (shape.equals("star")) {
+				level = 1;
+			} else {
+				level = Math.min(1 + rand.nextInt(maxLevel), deepest + 1);
+			}
+			levels[producers + f] = level;
+			perLevel[level]++;
+			deepest = Math.max(deepest, level);
+		}
+		forwardersByLevel = new int[maxLevel + 1][];
+		for (int l = 0; l <= maxLevel; l++) {
+			forwardersByLevel[l] = new int[perLevel[l]];
+			perLevel[l] = 0;
+		}
+		for (int f = producers; f < motes; f++) {
+			int level = levels[f];
+			forwardersByLevel[level][perLevel[level]++] = f;
+		}
+
+		/**
+		 * Choose the parents
+		 */
+
+		for (int i = 0; i < motes; i++)
+			chooseParent(i, shape.equals("chain"));
+		for (int i = 0; i < producers; i++) {
+			accelerations[i][0] = (short) (rand.nextInt(20) - 10);
+			accelerations[i][1] = (short) (rand.nextInt(20) - 10);
+			accelerations[i][2] = (short) (256 + rand.nextInt(20) - 10);
+		}
+	}
+
+	/**
+	 * Choose the parent of a mote: forwarders at level 1 (or a mote at level
+	 * 0) are children of the root, other forwarders are children of a
+	 * forwarder at the previous level; producers are children of any
+	 * forwarder (of the deepest one if "deepest" is true) or of the root if
+	 * there are no forwarders
+	 */
+
+	private void chooseParent(int mote, boolean deepest) {
+		if (mote >= producers) {
+			int level = levels[mote];
+			if (level <= 1) {
+				parents[mote] = -1;
+			} else {
+				int[] candidates = forwardersByLevel[level - 1];
+				parents[mote] = candidates[rand.nextInt(candidates.length)];
+			}
+			return;
+		}
+		if (forwarders == 0 || maxHops == 1) {
+			parents[mote] = -1;
+			levels[mote] = 1;
+			return;
+		}
+		int parent;
+		if (deepest) {
+			int[] candidates = forwardersByLevel[forwardersByLevel.length - 1];
+			for (int l = forwardersByLevel.length - 1; candidates.length == 0; l--)
+				candidates = forwardersByLevel[l - 1];
+			parent = candidates[rand.nextInt(candidates.length)];
+		} else {
+			parent = producers + rand.nextInt(forwarders);
+		}
+		parents[mote] = parent;
+		levels[mote] = levels[parent] + 1;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void open(Messenger messages) throws IOException {
+		this.messages = messages;
+		open = true;
+		nextPacket = System.nanoTime();
+		lastReport = System.currentTimeMillis();
+		messages.message(name + ": " + producers + " producers, "
+				+ forwarders + " forwarders, root " + rootMote);
+	}
+
+	public void close() throws IOException {
+		open = false;
+	}
+
+	/**
+	 * Return the next packet sent by the simulated root mote, waiting as
+	 * needed to respect the rate
+	 */
+
+	public byte[] readPacket() throws IOException {
+		if (!open)
+			throw new IOException(name + " closed");
+		if (rate > 0) {
+			nextPacket += 1000000000L / rate;
+			long wait = nextPacket - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			} else if (wait < -1000000000L) {
+
+				/**
+				 * More than one second late: don't try to catch up
+				 */
+
+				nextPacket = System.nanoTime();
+			}
+			if (!open)
+				throw new IOException(name + " closed");
+		}
+
+		/**
+		 * Some mote may change its parent
+		 */
+
+		if (churn > 0 && rand.nextDouble() < churn) {
+			chooseParent(rand.nextInt(ids.length), false);
+		}
+
+		/**
+		 * Build the message of a random producer, as it arrives at the root
+		 */
+
+		int producer = rand.nextInt(producers);
+		byte[] packet = new byte[AccelerationMsgView.SERIAL_HEADER_SIZE + SensorsDataMsg.DEFAULT_MESSAGE_SIZE];
+		packet[0] = AccelerationMsgView.SERIAL_ACTIVE_MESSAGE_ID;
+		packet[1] = (byte) (BROADCAST_ADDRESS >> 8);
+		packet[2] = (byte) BROADCAST_ADDRESS;
+		packet[3] = (byte) (rootMote >> 8);
+		packet[4] = (byte) rootMote;
+		packet[5] = (byte) SensorsDataMsg.DEFAULT_MESSAGE_SIZE;
+		packet[6] = (byte) DEFAULT_GROUP;
+		packet[7] = (byte) SensorsDataMsg.AM_TYPE;
+
+		SensorsDataMsg msg = new SensorsDataMsg(packet, AccelerationMsgView.SERIAL_HEADER_SIZE);
+		short[] acceleration = accelerations[producer];
+		for (int axis = 0; axis < 3; axis++)
+			acceleration[axis] += rand.nextInt(5) - 2;
+		msg.set_x_acceleration(acceleration[0]);
+		msg.set_y_acceleration(acceleration[1]);
+		msg.set_z_acceleration(acceleration[2]);
+
+		/**
+		 * Follow the parents up to the root
+		 */
+
+		int hopcount = 0;
+		for (int mote = producer; mote != -1 && hopcount < maxHops; mote = parents[mote]) {
+			if (drift > 0) {
+				int quality = qualities[mote] + rand.nextInt(2 * drift + 1) - drift;
+				qualities[mote] = Math.max(MIN_QUALITY, Math.min(MAX_QUALITY, quality));
+			}
+			msg.setElement_message_path(hopcount, ids[mote]);
+			msg.setElement_path_quality(hopcount, qualities[mote]);
+			hopcount++;
+		}
+		msg.set_hopcount(hopcount);
+
+		/**
+		 * Report the rate from time to time
+		 */
+
+		generated++;
+		long now = System.currentTimeMillis();
+		if (now - lastReport >= REPORT_PERIOD) {
+			messages.message(name + ": " + ((generated - lastReportCount) * 1000 / (now - lastReport))
+					+ " messages/s");
+			lastReport = now;
+			lastReportCount = generated;
+		}
+		return packet;
+	}
+
+	/**
+	 * Packets sent to the network are ignored
+	 */
+
+	public boolean writePacket(byte[] packet) throws IOException {
+		return open;
+	}
+}
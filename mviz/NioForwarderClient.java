@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import net.tinyos.util.*;
+
+/**
+ * Client for the TCP protocol of the serial forwarder (sf) based on a
+ * selector: a single thread serves the connections to one or more
+ * forwarders (one for each root mote), reads as many bytes as available
+ * into a large buffer for each connection and hands all the complete packets
+ * found there to a PacketBatchListener, without copying them.
+ * 
+ * The client is selected with a source like
+ * 
+ * nio@localhost:9002,otherhost:9002/51
+ * 
+ * namely a list of forwarders, each one optionally followed by the ID of the
+ * root mote attached to it (the root mote of the application by default).
+ * 
+ * The protocol of the serial forwarder: both ends first send two bytes,
+ * 'U' and ' ', then each packet is sent as its length (one byte) followed
+ * by the bytes of the packet. Broken connections are opened again after a
+ * delay.
+ * 
+ * @author user
+ */
+
+public class NioForwarderClient implements Runnable {
+
+	/**
+	 * Prefix of the sources handled by this class
+	 */
+
+	static final String PREFIX = "nio@";
+
+	static final byte[] HANDSHAKE = { 'U', ' ' };
+	static final int BUFFER_SIZE = 65536;
+	static final long RECONNECT_DELAY = 2000;
+
+	private final PacketBatchListener listener;
+	private final Messenger messages;
+	private final Connection[] connections;
+	private Selector selector;
+	private volatile boolean running;
+	private Thread thread;
+
+	/**
+	 * Positions of the packets found in a buffer, reused for every read:
+	 * packets aren't empty, so each one takes at least two bytes
+	 */
+
+	private final int[] offsets = new int[BUFFER_SIZE / 2];
+	private final int[] lengths = new int[BUFFER_SIZE / 2];
+
+	public NioForwarderClient(String source, int defaultRoot,
+			PacketBatchListener listener, Messenger messages) {
+		if (source.startsWith(PREFIX))
+			source = source.substring(PREFIX.length());
+		this.listener = listener;
+		this.messages = messages;
+		StringTokenizer tokens = new StringTokenizer(source, ",");
+		connections = new Connection[tokens.countTokens()];
+		for (int i = 0; i < connections.length; i++) {
+			String token = tokens.nextToken().trim();
+			int root = defaultRoot;
+			int slash = token.indexOf('/');
+			if (slash >= 0) {
+				root = Integer.parseInt(token.substring(slash + 1));
+				token = token.substring(0, slash);
+			}
+			int colon = token.lastIndexOf(':');
+			String host = colon > 0 ? token.substring(0, colon) : token;
+			int port = colon > 0 ? Integer.parseInt(token.substring(colon + 1)) : 9002;
+			connections[i] = new Connection(new InetSocketAddress(host, port), root);
+		}
+	}
+
+	public synchronized void start() throws IOException {
+		if (thread != null)
+			return;
+		selector = Selector.open();
+		running = true;
+		thread = new Thread(this, "NioForwarderClient");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+			thread = null;
+		}
+		if (t == null)
+			return;
+		running = false;
+		selector.wakeup();
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Body of the thread: connect to the forwarders, then wait for data
+	 * from any of them
+	 */
+
+	public void run() {
+		try {
+			while (running) {
+				long now = System.currentTimeMillis();
+				long timeout = RECONNECT_DELAY;
+				for (int i = 0; i < connections.length; i++) {
+					Connection connection = connections[i];
+					if (connection.channel == null) {
+						if (now >= connection.reconnectAt)
+							connection.connect();
+						else
+							timeout = Math.min(timeout, connection.reconnectAt - now);
+					}
+				}
+				selector.select(Math.max(1, timeout));
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					Connection connection = (Connection) key.attachment();
+					try {
+						if (key.isConnectable())
+							connection.finishConnect();
+						else if (key.isReadable())
+							connection.read();
+					} catch (IOException ex) {
+						connection.fail(ex);
+					} catch (RuntimeException ex) {
+
+						/**
+						 * A bug or a bad packet, here or in the listener:
+						 * drop this connection only
+						 */
+
+						connection.fail(ex);
+					}
+				}
+			}
+		} catch (IOException ex) {
+			messages.message("NioForwarderClient: " + ex.getMessage());
+		} finally {
+			for (int i = 0; i < connections.length; i++)
+				connections[i].close();
+			try {
+				selector.close();
+			} catch (IOException ex) {
+			}
+		}
+	}
+
+	/**
+	 * The connection to one forwarder
+	 */
+
+	private class Connection {
+		final InetSocketAddress address;
+		final int rootMote;
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		SocketChannel channel;
+		boolean handshaken;
+		long reconnectAt;
+
+		Connection(InetSocketAddress address, int rootMote) {
+			this.address = address;
+			this.rootMote = rootMote;
+		}
+
+		void connect() {
+			try {
+				channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				channel.socket().setReceiveBufferSize(BUFFER_SIZE);
+				channel.socket().setTcpNoDelay(true);
+				handshaken = false;
+				buffer.clear();
+				if (channel.connect(address)) {
+					channel.register(selector, SelectionKey.OP_READ, this);
+					connected();
+				} else {
+					channel.register(selector, SelectionKey.OP_CONNECT, this);
+				}
+			} catch (IOException ex) {
+				fail(ex);
+			}
+		}
+
+		void finishConnect() throws IOException {
+			if (channel.finishConnect()) {
+				channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+				connected();
+			}
+		}
+
+		/**
+		 * Send our part of the handshake: two bytes always fit in the
+		 * buffer of a new socket
+		 */
+
+		void connected() throws IOException {
+			ByteBuffer handshake = ByteBuffer.wrap(HANDSHAKE);
+			while (handshake.hasRemaining())
+				channel.write(handshake);
+			messages.message(PREFIX + address + ": connected");
+		}
+
+		/**
+		 * Read what is available and split it into packets: complete
+		 * packets are given to the listener in one batch and the bytes of
+		 * an incomplete packet are moved to the start of the buffer
+		 */
+
+		void read() throws IOException {
+			if (channel.read(buffer) < 0)
+				throw new EOFException("connection closed");
+			byte[] data = buffer.array();
+			int end = buffer.position();
+			int position = 0;
+			if (!handshaken) {
+				if (end < HANDSHAKE.length)
+					return;
+				if (data[0] != HANDSHAKE[0])
+					throw new IOException("not a serial forwarder");
+				handshaken = true;
+				position = HANDSHAKE.length;
+			}
+			int count = 0;
+			while (position < end) {
+				int length = data[position] & 0xff;
+				if (length == 0)
+					throw new IOException("empty packet");
+				if (position + 1 + length > end)
+					break;
+				offsets[count] = position + 1;
+				lengths[count] = length;
+				count++;
+				position += 1 + length;
+			}
+			if (count > 0)
+				listener.packetsReceived(rootMote, data, offsets, lengths, count);
+			buffer.limit(end);
+			buffer.position(position);
+			buffer.compact();
+		}
+
+		void fail(Exception ex) {
+			messages.message(PREFIX + address + ": "
+					+ (ex instanceof IOException ? ex.getMessage() : ex.toString()));
+			close();
+			reconnectAt = System.currentTimeMillis() + RECONNECT_DELAY;
+		}
+
+		void close() {
+			if (channel == null)
+				return;
+			try {
+				channel.close();
+			} catch (IOException ex) {
+			}
+			channel = null;
+		}
+	}
+}
@@ -0,0 +1,626 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.io.*;
+import java.net.*;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.client.methods.*;
+import org.apache.http.entity.*;
+import org.apache.http.impl.client.*;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.json.*;
+
+/**
+ * Upload stage between MessageInput and the Parse repository: samples
+ * received from the motes are appended to an UploadSpool and a dedicated
+ * thread reads them in batches (at most "batchSize" samples, or all the
+ * samples collected within "batchPeriod" milliseconds), which are sent to
+ * Parse through one pooled keep-alive HTTP client. At most "inFlight"
+ * batches are waiting for a response at the same time.
+ * 
+ * The thread of MoteIF which delivers messages never waits for the network:
+ * if the spool is full, the sample is dropped and counted. Samples are
+ * acknowledged in the spool only when Parse has accepted them: the response
+ * to a batch request tells the outcome of each sample, and only the samples
+ * stored are acknowledged. When samples fail, the uploader waits for the
+ * other batches, backs off and reads again from the first sample not
+ * acknowledged. Samples that Parse rejects for good (e.g. invalid) are moved
+ * to the dead-letter log of the spool instead, so they don't block the ones
+ * after them.
+ * 
+ * @author user
+ */
+
+public class ParseUploader implements Runnable {
+
+	/**
+	 * Names of the fields of an "Acceleration" object on Parse
+	 */
+
+	static final String[] parameters = { "X", "Y", "Z", "Origin", "ReceivedAt" };
+
+	/**
+	 * Max number of operations allowed by Parse in a single batch request
+	 */
+
+	static final int MAX_PARSE_BATCH = 50;
+
+	/**
+	 * Bounds of the delay before retrying after a failed upload
+	 */
+
+	static final long MIN_RETRY_DELAY = 1000;
+	static final long MAX_RETRY_DELAY = 60000;
+
+	/**
+	 * Outcomes of the upload of a sample
+	 */
+
+	static final byte UPLOADED = 0;
+	static final byte RETRY = 1;
+	static final byte REJECTED = 2;
+
+	/**
+	 * Codes of the errors of Parse after which an operation may succeed if
+	 * made again: internal server error, connection failed, timeout and
+	 * request limit exceeded. Any other error rejects the sample for good
+	 */
+
+	static final int[] TRANSIENT_ERRORS = { 1, 100, 124, 155 };
+
+	/**
+	 * Where single samples are posted and where batches are posted; the
+	 * latter is derived from the former
+	 */
+
+	private final String postURL;
+	private final String batchURL;
+
+	/**
+	 * Path of the class "Acceleration" used inside a batch request
+	 */
+
+	private final String classPath;
+
+	private final String applicationId;
+	private final String restApiKey;
+
+	private final int batchSize;
+	private final long batchPeriod;
+
+	/**
+	 * Samples waiting to be uploaded
+	 */
+
+	private final UploadSpool spool;
+
+	/**
+	 * Window of batches sent but not yet answered: a batch is taken from
+	 * here before being filled and given back when the request completes
+	 */
+
+	private final BlockingQueue<Batch> freeBatches;
+	private final Batch[] allBatches;
+	private final ExecutorService senders;
+
+	/**
+	 * Set by a sender when a batch could not be uploaded
+	 */
+
+	private volatile boolean failure;
+	private volatile long retryDelay = MIN_RETRY_DELAY;
+
+	/**
+	 * The HTTP client shared by all the requests: connections are pooled
+	 * and kept alive between batches
+	 */
+
+	private final CloseableHttpClient httpClient;
+
+	private volatile boolean running;
+	private Thread thread;
+
+	/**
+	 * Statistics about the upload
+	 */
+
+	private final AtomicLong uploaded = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	public ParseUploader(String postURL, String applicationId,
+			String restApiKey, UploadSpool spool, int batchSize,
+			long batchPeriod, int inFlight) throws MalformedURLException {
+		this.postURL = postURL;
+		this.applicationId = applicationId;
+		this.restApiKey = restApiKey;
+		this.spool = spool;
+		this.batchSize = Math.max(1, Math.min(batchSize, MAX_PARSE_BATCH));
+		this.batchPeriod = Math.max(1, batchPeriod);
+
+		/**
+		 * The batch endpoint of the Parse API is "/1/batch" on the same host
+		 * of the class, e.g.
+		 * https://api.parse.com/1/classes/Acceleration -> https://api.parse.com/1/batch
+		 */
+
+		URL url = new URL(postURL);
+		classPath = url.getPath();
+		batchURL = new URL(url.getProtocol(), url.getHost(), url.getPort(),
+				classPath.substring(0, classPath.indexOf('/', 1)) + "/batch")
+				.toString();
+
+		/**
+		 * One batch and one connection for each request that can be in
+		 * flight
+		 */
+
+		int window = Math.max(1, inFlight);
+		freeBatches = new ArrayBlockingQueue<Batch>(window);
+		allBatches = new Batch[window];
+		for (int i = 0; i < window; i++) {
+			allBatches[i] = new Batch(this.batchSize);
+			freeBatches.add(allBatches[i]);
+		}
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(window);
+		connectionManager.setDefaultMaxPerRoute(window);
+		httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.evictIdleConnections(30, TimeUnit.SECONDS).build();
+		senders = Executors.newFixedThreadPool(window, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ParseUploader-sender");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Start the thread building batches
+	 */
+
+	public synchronized void start() {
+		if (thread != null)
+			return;
+		running = true;
+		thread = new Thread(this, "ParseUploader");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop the uploader: samples already in the spool are sent once more
+	 * and pending requests are given a few seconds to complete; whatever is
+	 * not acknowledged stays in the spool for the next run
+	 */
+
+	public void stop() {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+			thread = null;
+		}
+		if (t == null)
+			return;
+		running = false;
+		t.interrupt();
+		try {
+			t.join();
+			senders.shutdown();
+			senders.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		spool.flush();
+		try {
+			httpClient.close();
+		} catch (IOException ex) {
+			System.out.println("Exception:" + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Add a sample to the spool of samples to upload, stamped with the
+	 * current time. This method never blocks nor allocates: false is
+	 * returned if the spool is full and the sample is discarded
+	 */
+
+	public boolean enqueue(short x, short y, short z, int origin) {
+		if (spool.append(origin, x, y, z, System.currentTimeMillis()))
+			return true;
+		dropped.incrementAndGet();
+		return false;
+	}
+
+	public long getUploaded() {
+		return uploaded.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public int getPending() {
+		return spool.pending();
+	}
+
+	/**
+	 * Body of the thread building batches: wait for the first sample, then
+	 * for the following ones until the batch is full or the batch period
+	 * has expired
+	 */
+
+	public void run() {
+		while (running) {
+			try {
+				if (failure) {
+					retry();
+					continue;
+				}
+				Batch batch = freeBatches.take();
+				spool.await(1, Long.MAX_VALUE);
+				spool.await(batchSize, batchPeriod);
+				if (!read(batch)) {
+					freeBatches.put(batch);
+					continue;
+				}
+				send(batch);
+			} catch (InterruptedException e) {
+
+				/**
+				 * Woken up by stop()
+				 */
+			}
+		}
+
+		/**
+		 * Stopping: send once what is left in the spool without waiting
+		 * for more samples
+		 */
+
+		while (!failure) {
+			Batch batch = freeBatches.poll();
+			if (batch == null) {
+				break;
+			}
+			if (!read(batch)) {
+				freeBatches.add(batch);
+				break;
+			}
+			send(batch);
+		}
+	}
+
+	/**
+	 * After a failure, wait until all the batches are back, then wait for
+	 * the retry delay (doubled at each consecutive failure) and read again
+	 * the samples not acknowledged
+	 */
+
+	private void retry() throws InterruptedException {
+		for (int i = 0; i < allBatches.length; i++)
+			allBatches[i] = freeBatches.take();
+		for (int i = 0; i < allBatches.length; i++)
+			freeBatches.put(allBatches[i]);
+		Thread.sleep(retryDelay);
+		retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+		spool.rewind();
+		failure = false;
+	}
+
+	private boolean read(Batch batch) {
+		batch.size = spool.read(batchSize, batch.origin, batch.x, batch.y,
+				batch.z, batch.timestamp, batch.positions);
+		return batch.size > 0;
+	}
+
+	/**
+	 * Hand the batch to one of the senders
+	 */
+
+	private void send(Batch batch) {
+		try {
+			senders.execute(batch);
+		} catch (RejectedExecutionException e) {
+			freeBatches.add(batch);
+		}
+	}
+
+	/**
+	 * Make the POST request for a batch: a single sample is posted as it is
+	 * to the URL of the class, while more samples are wrapped in a batch
+	 * request. The outcome of each sample is set in the batch
+	 */
+
+	private void post(Batch batch) {
+		Arrays.fill(batch.outcome, 0, batch.size, RETRY);
+		try {
+			HttpPost httpPost = new HttpPost(batch.size == 1 ? postURL : batchURL);
+			StringBuilder requestBody = new StringBuilder(96 * batch.size);
+			appendRequestBody(requestBody, classPath, batch.size, batch.x,
+					batch.y, batch.z, batch.origin, batch.timestamp);
+
+			/**
+			 * Add headers to the post request, as needed to use the Parse
+			 * API
+			 */
+
+			httpPost.addHeader(DDocument.parseApplicationIdHeader, applicationId);
+			httpPost.addHeader(DDocument.parseRESTApiKeyHeader, restApiKey);
+			httpPost.setEntity(new StringEntity(requestBody.toString(),
+					ContentType.create("application/json", "UTF-8")));
+
+			/**
+			 * Make the request; the body of the response is always read
+			 * and the response closed, so that the connection goes back to
+			 * the pool
+			 */
+
+			CloseableHttpResponse response = httpClient.execute(httpPost);
+			try {
+				int status = response.getStatusLine().getStatusCode();
+				String body = response.getEntity() == null ? "" : EntityUtils
+						.toString(response.getEntity(), "UTF-8");
+				if (status / 100 == 2) {
+					if (batch.size == 1)
+						batch.outcome[0] = UPLOADED;
+					else
+						readBatchResponse(batch, body);
+					return;
+				}
+				System.out.println("Upload failed: " + response.getStatusLine());
+
+				/**
+				 * The whole request failed: the samples are rejected if the
+				 * request can't succeed as it is (a client error other than
+				 * authentication, timeout or too many requests), unless
+				 * Parse tells the error is transient
+				 */
+
+				if (status / 100 == 4 && status != 401 && status != 403
+						&& status != 408 && status != 429
+						&& !isTransient(errorCode(body))) {
+					for (int i = 0; i < batch.size; i++) {
+						batch.outcome[i] = REJECTED;
+						batch.reasons[i] = response.getStatusLine() + " " + body;
+					}
+				}
+			} finally {
+				response.close();
+			}
+		} catch (IOException ex) {
+			System.out.println("Exception:" + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Set the outcome of each sample from the response to a batch request,
+	 * an array with the outcome of each operation in the order they were
+	 * sent:
+	 * 
+	 * [{"success":{...}},{"error":{"code":111,"error":"..."}},...]
+	 * 
+	 * Samples without an outcome are made again
+	 */
+
+	private void readBatchResponse(Batch batch, String body) {
+		try {
+			JSONArray results = new JSONArray(body);
+			for (int i = 0; i < batch.size && i < results.length(); i++) {
+				JSONObject result = (JSONObject) results.get(i);
+				if (result.has("success")) {
+					batch.outcome[i] = UPLOADED;
+				} else if (result.has("error")) {
+					JSONObject error = result.optJSONObject("error");
+					int code = error == null ? -1 : error.optInt("code", -1);
+					if (!isTransient(code)) {
+						batch.outcome[i] = REJECTED;
+						batch.reasons[i] = String.valueOf(error);
+					}
+				}
+			}
+		} catch (JSONException ex) {
+			System.out.println("Exception:" + ex.getMessage());
+		} catch (ClassCastException ex) {
+			System.out.println("Exception:" + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Code of the error in the body of a response of Parse, -1 if there's
+	 * none:
+	 * 
+	 * {"code":111,"error":"..."}
+	 */
+
+	private static int errorCode(String body) {
+		try {
+			return new JSONObject(body).optInt("code", -1);
+		} catch (JSONException ex) {
+			return -1;
+		}
+	}
+
+	private static boolean isTransient(int code) {
+		for (int i = 0; i < TRANSIENT_ERRORS.length; i++) {
+			if (TRANSIENT_ERRORS[i] == code)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Append the body of the request for the first "size" samples: a single
+	 * sample is posted as it is, while more samples are wrapped in a batch
+	 * request, whose syntax with the Parse API is
+	 * 
+	 * {"requests":[{"method":"POST","path":"/1/classes/...","body":{...}},...]}
+	 */
+
+	static void appendRequestBody(StringBuilder body, String classPath,
+			int size, short[] x, short[] y, short[] z, int[] origin,
+			long[] timestamp) {
+		if (size == 1) {
+			appendObject(body, x[0], y[0], z[0], origin[0], timestamp[0]);
+			return;
+		}
+		body.append("{\"requests\":[");
+		for (int i = 0; i < size; i++) {
+			if (i > 0)
+				body.append(',');
+			body.append("{\"method\":\"POST\",\"path\":\"")
+					.append(classPath).append("\",\"body\":");
+			appendObject(body, x[i], y[i], z[i], origin[i], timestamp[i]);
+			body.append('}');
+		}
+		body.append("]}");
+	}
+
+	/**
+	 * Append the JSON representation of a sample:
+	 * 
+	 * {"PARAMETER1":VALUE1,"PARAMETER2":VALUE2,"PARAMETER3":VALUE3,...}
+	 */
+
+	static void appendObject(StringBuilder body, short x, short y, short z,
+			int origin, long timestamp) {
+		body.append("{\"").append(parameters[0]).append("\":").append(x)
+				.append(",\"").append(parameters[1]).append("\":").append(y)
+				.append(",\"").append(parameters[2]).append("\":").append(z)
+				.append(",\"").append(parameters[3]).append("\":").append(origin)
+				.append(",\"").append(parameters[4]).append("\":").append(timestamp)
+				.append('}');
+	}
+
+	/**
+	 * A batch of samples read from the spool; batches are reused, one for
+	 * each request that can be in flight
+	 */
+
+	private class Batch implements Runnable {
+		int size;
+		final int[] origin;
+		final short[] x, y, z;
+		final long[] timestamp;
+		final long[] positions;
+
+		/**
+		 * Outcome of each sample, and reason of the samples rejected
+		 */
+
+		final byte[] outcome;
+		final String[] reasons;
+
+		/**
+		 * Positions of the samples stored and of the ones rejected
+		 */
+
+		final long[] uploadedPositions;
+		final long[] rejectedPositions;
+		final String[] rejectedReasons;
+
+		Batch(int capacity) {
+			origin = new int[capacity];
+			x = new short[capacity];
+			y = new short[capacity];
+			z = new short[capacity];
+			timestamp = new long[capacity];
+			positions = new long[capacity];
+			outcome = new byte[capacity];
+			reasons = new String[capacity];
+			uploadedPositions = new long[capacity];
+			rejectedPositions = new long[capacity];
+			rejectedReasons = new String[capacity];
+		}
+
+		/**
+		 * Upload the batch, acknowledge in the spool the samples stored and
+		 * move the ones rejected to its dead-letter log; if any sample is
+		 * left, it's read again after a while. Then give the batch back
+		 */
+
+		public void run() {
+			try {
+				post(this);
+				int stored = 0;
+				int dead = 0;
+				for (int i = 0; i < size; i++) {
+					if (outcome[i] == UPLOADED) {
+						uploadedPositions[stored++] = positions[i];
+					} else if (outcome[i] == REJECTED) {
+						rejectedPositions[dead] = positions[i];
+						rejectedReasons[dead++] = reasons[i];
+					}
+				}
+				if (stored > 0) {
+					spool.ack(uploadedPositions, stored);
+					uploaded.addAndGet(stored);
+				}
+				if (dead > 0) {
+					try {
+						spool.reject(rejectedPositions, rejectedReasons, dead);
+						rejected.addAndGet(dead);
+						System.out.println("Rejected " + dead
+								+ " samples, e.g. " + rejectedReasons[0]);
+					} catch (IOException ex) {
+						System.out.println("Exception:" + ex.getMessage());
+						dead = 0;
+					}
+					Arrays.fill(rejectedReasons, 0, size, null);
+				}
+				Arrays.fill(reasons, 0, size, null);
+				if (stored + dead < size) {
+					failed.addAndGet(size - stored - dead);
+					failure = true;
+				} else {
+					retryDelay = MIN_RETRY_DELAY;
+				}
+			} finally {
+				freeBatches.add(this);
+			}
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.awt.*;
+import java.util.*;
+
+/**
+ * Where motes and host are placed on the canvas: the canvas is divided in
+ * square cells, each holding at most one mote or the host. A mote gets the
+ * free cell nearest to a cell chosen from its ID alone, so the same network
+ * gets the same layout each time it's shown, and finding it only looks at
+ * the cells around the chosen one. When all the cells are taken the grid
+ * grows (twice the columns and the rows) instead of giving up: the cells
+ * already taken don't move, the new ones extend beyond the canvas.
+ * 
+ * @author user
+ */
+
+public class PlacementGrid {
+
+	/**
+	 * Side of a cell: a mote with its halo, plus some room for the links
+	 */
+
+	static final int DEFAULT_PITCH = SpriteCache.HALO_SIZE + 16;
+
+	private final int pitch;
+	private int columns;
+	private int rows;
+	private boolean[] used;
+	private int numberOfUsed;
+
+	/**
+	 * Divide an area of width x height in cells of side pitch (at least
+	 * one cell)
+	 */
+
+	public PlacementGrid(int width, int height, int pitch) {
+		this.pitch = pitch;
+		columns = Math.max(1, width / pitch);
+		rows = Math.max(1, height / pitch);
+		used = new boolean[columns * rows];
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * Size of the area covered by the cells, which grows with the grid
+	 */
+
+	public int getWidth() {
+		return columns * pitch;
+	}
+
+	public int getHeight() {
+		return rows * pitch;
+	}
+
+	public int size() {
+		return numberOfUsed;
+	}
+
+	/**
+	 * Take a cell for the mote with the given ID: the free one nearest to
+	 * the cell the ID is mapped to, which depends only on the ID and on the
+	 * size of the grid
+	 * 
+	 * @return the center of the cell
+	 */
+
+	public Point place(int id) {
+		if (numberOfUsed == used.length)
+			grow();
+		Random random = new Random(id);
+		return take(random.nextInt(columns), random.nextInt(rows));
+	}
+
+	/**
+	 * Take the free cell nearest to the one containing the given point
+	 * (used to put the host next to the root mote)
+	 * 
+	 * @return the center of the cell
+	 */
+
+	public Point placeNear(int x, int y) {
+		if (numberOfUsed == used.length)
+			grow();
+		int column = Math.min(Math.max(x / pitch, 0), columns - 1);
+		int row = Math.min(Math.max(y / pitch, 0), rows - 1);
+		return take(column, row);
+	}
+
+	/**
+	 * Look for a free cell on squares of growing size around the given
+	 * one, take the first found and return its center; there's at least
+	 * one free cell
+	 */
+
+	private Point take(int column, int row) {
+		int maxDistance = Math.max(columns, rows);
+		for (int distance = 0; distance <= maxDistance; distance++) {
+			for (int dx = -distance; dx <= distance; dx++) {
+				int step = (dx == -distance || dx == distance) ? 1 : 2 * distance;
+				for (int dy = -distance; dy <= distance; dy += step) {
+					int c = column + dx;
+					int r = row + dy;
+					if (c < 0 || c >= columns || r < 0 || r >= rows)
+						continue;
+					int cell = r * columns + c;
+					if (!used[cell]) {
+						used[cell] = true;
+						numberOfUsed++;
+						return new Point(c * pitch + pitch / 2, r * pitch + pitch / 2);
+					}
+				}
+			}
+		}
+		throw new IllegalStateException("No free cell");
+	}
+
+	/**
+	 * Double the columns and the rows, keeping the cells taken where they
+	 * are
+	 */
+
+	private void grow() {
+		int newColumns = 2 * columns;
+		boolean[] newUsed = new boolean[newColumns * 2 * rows];
+		for (int r = 0; r < rows; r++)
+			System.arraycopy(used, r * columns, newUsed, r * newColumns, columns);
+		columns = newColumns;
+		rows = 2 * rows;
+		used = newUsed;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.awt.*;
+import java.awt.event.*;
+
+/**
+ * Decides when the canvas is drawn: changes only mark the canvas as dirty
+ * (requestRender) and the canvas is drawn at most "maxFps" times per
+ * second, however many changes arrive in the meantime, so that the cost of
+ * drawing doesn't grow with the rate of messages from the network.
+ * 
+ * When events are waiting in the event queue at the time of a frame, the
+ * frame is skipped to let the event dispatch thread catch up, but never
+ * more than MAX_SKIPPED_FRAMES frames in a row. The timer only runs while
+ * something is waiting to be drawn.
+ * 
+ * All the methods have to be called on the event dispatch thread.
+ * 
+ * @author user
+ */
+
+public class RenderScheduler implements ActionListener {
+
+	public static final int DEFAULT_MAX_FPS = 25;
+
+	/**
+	 * Max number of frames skipped in a row because the event queue is
+	 * busy
+	 */
+
+	static final int MAX_SKIPPED_FRAMES = 4;
+
+	private final Runnable render;
+	private final javax.swing.Timer timer;
+	private boolean dirty;
+	private int skipped;
+
+	/**
+	 * Statistics about the frames
+	 */
+
+	private long renderedFrames;
+	private long skippedFrames;
+
+	public RenderScheduler(Runnable render, int maxFps) {
+		this.render = render;
+		timer = new javax.swing.Timer(frameInterval(maxFps), this);
+		timer.setCoalesce(true);
+	}
+
+	private static int frameInterval(int maxFps) {
+		return 1000 / Math.max(1, Math.min(maxFps, 1000));
+	}
+
+	public void setMaxFps(int maxFps) {
+		timer.setDelay(frameInterval(maxFps));
+	}
+
+	/**
+	 * Mark the canvas as dirty: it will be drawn at the next frame
+	 */
+
+	public void requestRender() {
+		dirty = true;
+		if (!timer.isRunning()) {
+
+			/**
+			 * After an idle time draw right away, then go on at the frame
+			 * rate
+			 */
+
+			timer.setInitialDelay(0);
+			timer.start();
+		}
+	}
+
+	/**
+	 * A frame: draw if something changed, unless the event dispatch
+	 * thread is late; stop the timer when there's nothing to do
+	 */
+
+	public void actionPerformed(ActionEvent e) {
+		if (!dirty) {
+			timer.stop();
+			return;
+		}
+		if (skipped < MAX_SKIPPED_FRAMES
+				&& Toolkit.getDefaultToolkit().getSystemEventQueue().peekEvent() != null) {
+			skipped++;
+			skippedFrames++;
+			return;
+		}
+		skipped = 0;
+		dirty = false;
+		renderedFrames++;
+		render.run();
+	}
+
+	public long getRenderedFrames() {
+		return renderedFrames;
+	}
+
+	public long getSkippedFrames() {
+		return skippedFrames;
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+
+/**
+ * The motes in each square cell of the network, so that the motes within
+ * an area are found looking only at the cells covering it, whatever the
+ * number of motes outside it; the canvas also draws a cell as a single
+ * glyph when the network is shown from far away. Cells are created when
+ * the first mote enters them.
+ * 
+ * @author user
+ */
+
+public class SpatialIndex {
+
+	/**
+	 * Side of a cell
+	 */
+
+	static final int CELL_SIZE = 2 * PlacementGrid.DEFAULT_PITCH;
+
+	/**
+	 * The motes within a cell
+	 */
+
+	static final class Cell {
+		final int column;
+		final int row;
+		DMoteModel[] motes = new DMoteModel[4];
+		int size;
+
+		Cell(int column, int row) {
+			this.column = column;
+			this.row = row;
+		}
+	}
+
+	private final LongObjectMap<Cell> cells = new LongObjectMap<Cell>();
+
+	/**
+	 * Add a mote, in the cell of its current position
+	 */
+
+	public void add(DMoteModel mote) {
+		int column = cellOf(mote.getLocX());
+		int row = cellOf(mote.getLocY());
+		long key = key(column, row);
+		Cell cell = cells.get(key);
+		if (cell == null) {
+			cell = new Cell(column, row);
+			cells.put(key, cell);
+		}
+		if (cell.size == cell.motes.length) {
+			DMoteModel[] motes = new DMoteModel[2 * cell.size];
+			System.arraycopy(cell.motes, 0, motes, 0, cell.size);
+			cell.motes = motes;
+		}
+		cell.motes[cell.size++] = mote;
+	}
+
+	/**
+	 * A mote was at (oldX, oldY): move it to the cell of its current
+	 * position if it changed
+	 */
+
+	public void move(DMoteModel mote, int oldX, int oldY) {
+		int column = cellOf(oldX);
+		int row = cellOf(oldY);
+		if (column == cellOf(mote.getLocX()) && row == cellOf(mote.getLocY()))
+			return;
+		Cell cell = cells.get(key(column, row));
+		for (int i = 0; i < cell.size; i++) {
+			if (cell.motes[i] == mote) {
+				cell.motes[i] = cell.motes[--cell.size];
+				cell.motes[cell.size] = null;
+				break;
+			}
+		}
+		add(mote);
+	}
+
+	/**
+	 * The cell in the given column and row, null if no mote ever entered it
+	 */
+
+	Cell getCell(int column, int row) {
+		return cells.get(key(column, row));
+	}
+
+	/**
+	 * Column (or row) of the cells containing the given coordinate
+	 */
+
+	static int cellOf(int coordinate) {
+		return Math.floorDiv(coordinate, CELL_SIZE);
+	}
+
+	private static long key(int column, int row) {
+		return ((long) column << 32) | (row & 0xffffffffL);
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.awt.*;
+import java.awt.image.*;
+
+/**
+ * The images drawn on the canvas, prepared once: the images of motes and
+ * host are scaled to SPRITE_SIZE and copied in the format of the screen,
+ * and the image of producer motes already contains the red halo around
+ * the mote, so that drawing a mote is a plain copy of pixels.
+ * 
+ * @author user
+ */
+
+public class SpriteCache {
+
+	/**
+	 * Size of the sprites of motes and host, and of the sprite of
+	 * producers, halo included
+	 */
+
+	static final int SPRITE_SIZE = 40;
+	static final int HALO_SIZE = 44;
+
+	private final BufferedImage mote;
+	private final BufferedImage producer;
+	private final BufferedImage host;
+
+	/**
+	 * Create the sprites from the decoded images; a missing image (null)
+	 * gives a missing sprite
+	 */
+
+	public SpriteCache(BufferedImage moteImage, BufferedImage hostImage) {
+		mote = moteImage != null ? scale(moteImage, SPRITE_SIZE) : null;
+		host = hostImage != null ? scale(hostImage, SPRITE_SIZE) : null;
+
+		/**
+		 * Producer: the halo with the mote at its center
+		 */
+
+		producer = createCompatibleImage(HALO_SIZE, HALO_SIZE);
+		Graphics2D g = producer.createGraphics();
+		g.setColor(Color.RED);
+		g.fillOval(0, 0, HALO_SIZE, HALO_SIZE);
+		if (mote != null)
+			g.drawImage(mote, (HALO_SIZE - SPRITE_SIZE) / 2, (HALO_SIZE - SPRITE_SIZE) / 2, null);
+		g.dispose();
+	}
+
+	public BufferedImage getMote() {
+		return mote;
+	}
+
+	public BufferedImage getProducer() {
+		return producer;
+	}
+
+	public BufferedImage getHost() {
+		return host;
+	}
+
+	/**
+	 * A copy of the image scaled to size x size
+	 */
+
+	private static BufferedImage scale(BufferedImage image, int size) {
+		BufferedImage scaled = createCompatibleImage(size, size);
+		Graphics2D g = scaled.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+				RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.setRenderingHint(RenderingHints.KEY_RENDERING,
+				RenderingHints.VALUE_RENDER_QUALITY);
+		g.drawImage(image, 0, 0, size, size, null);
+		g.dispose();
+		return scaled;
+	}
+
+	/**
+	 * A transparent image in the format of the screen, or a plain ARGB
+	 * image when there's no screen
+	 */
+
+	static BufferedImage createCompatibleImage(int width, int height) {
+		if (GraphicsEnvironment.isHeadless())
+			return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		return GraphicsEnvironment.getLocalGraphicsEnvironment()
+				.getDefaultScreenDevice().getDefaultConfiguration()
+				.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+
+/**
+ * A set of changes to the topology of the network, as carried by one
+ * message: the path of the message (IDs of the motes it went through, root
+ * excluded, as in "message_path"), the time it was received and the list of
+ * directed links it crossed, each one with the quality of the link and a
+ * flag telling if its start mote is a producer. Deltas are applied by
+ * TopologyModel.
+ * 
+ * Deltas are reused, so that no object is allocated for each message: they
+ * are taken from the TopologyModel (see obtain), filled and submitted, and
+ * the model takes them back once applied. A delta must not be changed after
+ * being submitted.
+ * 
+ * @author user
+ */
+
+public class TopologyDelta {
+
+	private final int[] path;
+	private long time;
+	private int size;
+	private final int[] starts;
+	private final int[] ends;
+	private final int[] qualities;
+	private final boolean[] producers;
+
+	/**
+	 * Create an empty delta, with room for the path of a message
+	 */
+
+	TopologyDelta() {
+		path = new int[AccelerationMsgView.NUMBER_OF_MOTES];
+		starts = new int[AccelerationMsgView.NUMBER_OF_MOTES];
+		ends = new int[AccelerationMsgView.NUMBER_OF_MOTES];
+		qualities = new int[AccelerationMsgView.NUMBER_OF_MOTES];
+		producers = new boolean[AccelerationMsgView.NUMBER_OF_MOTES];
+	}
+
+	/**
+	 * IDs of the motes along the path: the first one is the origin. The
+	 * array belongs to the delta, which fills it in place
+	 */
+
+	int[] getPath() {
+		return path;
+	}
+
+	/**
+	 * Time when the message was received (ms)
+	 */
+
+	public long getTime() {
+		return time;
+	}
+
+	void setTime(long time) {
+		this.time = time;
+	}
+
+	/**
+	 * Number of links in the delta
+	 */
+
+	public int size() {
+		return size;
+	}
+
+	void setSize(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * Set the i-th link, from start to end
+	 */
+
+	void setLink(int i, int start, int end, int quality, boolean producer) {
+		starts[i] = start;
+		ends[i] = end;
+		qualities[i] = quality;
+		producers[i] = producer;
+	}
+
+	public int getStart(int i) {
+		return starts[i];
+	}
+
+	public int getEnd(int i) {
+		return ends[i];
+	}
+
+	public int getQuality(int i) {
+		return qualities[i];
+	}
+
+	/**
+	 * Tells if the start mote of the i-th link is a producer
+	 */
+
+	public boolean isProducer(int i) {
+		return producers[i];
+	}
+}
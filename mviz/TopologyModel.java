@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The topology of the network (motes, directed links with their quality and
+ * the last path from each producer to the root), independent from the GUI.
+ * 
+ * Changes arrive as TopologyDelta objects from any thread and are queued;
+ * a single thread applies them and then publishes an immutable
+ * TopologySnapshot, at most once per frame interval, so the deltas received
+ * within a frame are merged in a single snapshot. Readers (canvas, tables,
+ * exporters) take the last snapshot with getSnapshot() without locks, or
+ * are notified by TopologyListener.
+ * 
+ * Deltas come from a pool of the model (see obtain) and go back to it once
+ * applied, so messages are turned into deltas without allocating.
+ * 
+ * @author user
+ */
+
+public class TopologyModel implements Runnable {
+
+	/**
+	 * Max number of deltas waiting to be applied
+	 */
+
+	static final int QUEUE_CAPACITY = 8192;
+
+	/**
+	 * Max number of deltas in use: those waiting in the queue and those
+	 * being applied
+	 */
+
+	static final int POOL_CAPACITY = 2 * QUEUE_CAPACITY;
+
+	/**
+	 * Default interval between two snapshots (ms)
+	 */
+
+	static final long DEFAULT_FRAME_INTERVAL = 40;
+
+	private final long frameInterval;
+	private final BlockingQueue<TopologyDelta> queue = new ArrayBlockingQueue<TopologyDelta>(QUEUE_CAPACITY);
+
+	/**
+	 * Deltas ready to be filled again, and number of deltas created so far
+	 */
+
+	private final BlockingQueue<TopologyDelta> pool = new ArrayBlockingQueue<TopologyDelta>(POOL_CAPACITY);
+	private final AtomicInteger created = new AtomicInteger();
+	private final List<TopologyListener> listeners = new CopyOnWriteArrayList<TopologyListener>();
+	private volatile TopologySnapshot snapshot = TopologySnapshot.EMPTY;
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile boolean running;
+	private Thread thread;
+
+	/**
+	 * State of the topology, only accessed by the thread of the model:
+	 * for motes, links and paths, the position in the arrays given their
+	 * key, and the arrays themselves
+	 */
+
+	private final IntIntMap moteIndexes = new IntIntMap();
+	private int[] motes = new int[16];
+	private boolean[] producers = new boolean[16];
+	private int numberOfMotes;
+
+	private final LongIntMap linkIndexes = new LongIntMap();
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private int[] qualities = new int[16];
+	private int numberOfLinks;
+
+	private final IntIntMap pathIndexes = new IntIntMap();
+	private int[][] paths = new int[16][];
+	private long[] pathTimes = new long[16];
+	private int numberOfPaths;
+
+	private long version;
+
+	/**
+	 * Create a model publishing at most one snapshot every frameInterval
+	 * milliseconds
+	 */
+
+	public TopologyModel(long frameInterval) {
+		this.frameInterval = frameInterval;
+	}
+
+	public void addListener(TopologyListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(TopologyListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * The last snapshot published
+	 */
+
+	public TopologySnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Take a delta to fill and submit; this never blocks: if all the
+	 * deltas are in use, the message is discarded and null is returned
+	 */
+
+	public TopologyDelta obtain() {
+		TopologyDelta delta = pool.poll();
+		if (delta != null)
+			return delta;
+		if (created.incrementAndGet() <= POOL_CAPACITY)
+			return new TopologyDelta();
+		created.decrementAndGet();
+		dropped.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Queue a delta; this never blocks: if the queue is full, the delta is
+	 * discarded and false is returned
+	 */
+
+	public boolean submit(TopologyDelta delta) {
+		if (queue.offer(delta))
+			return true;
+		pool.offer(delta);
+		dropped.incrementAndGet();
+		return false;
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public synchronized void start() {
+		if (thread != null)
+			return;
+		running = true;
+		thread = new Thread(this, "TopologyModel");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+			thread = null;
+		}
+		if (t == null)
+			return;
+		running = false;
+		t.interrupt();
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Body of the writer thread: wait for deltas, apply all those available
+	 * and publish a snapshot; then wait until the end of the frame
+	 */
+
+	public void run() {
+		ArrayList<TopologyDelta> deltas = new ArrayList<TopologyDelta>();
+		try {
+			while (running) {
+				deltas.add(queue.take());
+				long frameStart = System.currentTimeMillis();
+				queue.drainTo(deltas);
+				for (int i = 0; i < deltas.size(); i++) {
+					apply(deltas.get(i));
+					pool.offer(deltas.get(i));
+				}
+				deltas.clear();
+				publish();
+				long left = frameStart + frameInterval - System.currentTimeMillis();
+				if (left > 0)
+					Thread.sleep(left);
+			}
+		} catch (InterruptedException e) {
+
+			/**
+			 * Woken up by stop()
+			 */
+		}
+	}
+
+	/**
+	 * Apply a delta to the state of the topology
+	 */
+
+	void apply(TopologyDelta delta) {
+
+		/**
+		 * The path of the producer
+		 */
+
+		int[] path = delta.getPath();
+		if (path != null && path.length > 0) {
+			int index = pathIndexes.get(path[0]);
+			if (index == IntIntMap.MISSING) {
+				if (numberOfPaths == paths.length) {
+					paths = Arrays.copyOf(paths, numberOfPaths * 2);
+					pathTimes = Arrays.copyOf(pathTimes, numberOfPaths * 2);
+				}
+				index = numberOfPaths++;
+				pathIndexes.put(path[0], index);
+			}
+
+			/**
+			 * The delta is reused and the path array is shared with the
+			 * snapshots: it's copied, only when the path changes
+			 */
+
+			if (paths[index] == null || !Arrays.equals(paths[index], path))
+				paths[index] = path.clone();
+			pathTimes[index] = delta.getTime();
+		}
+
+		for (int i = 0; i < delta.size(); i++) {
+			int start = delta.getStart(i);
+			int end = delta.getEnd(i);
+			int quality = delta.getQuality(i);
+
+			/**
+			 * Motes seen for the first time; a mote is a producer if it was
+			 * ever seen at the start of a path
+			 */
+
+			addMote(start, delta.isProducer(i));
+			addMote(end, false);
+
+			/**
+			 * The link from start to end
+			 */
+
+			long key = LinkKey.of(start, end);
+			int index = linkIndexes.get(key);
+			if (index == LongIntMap.MISSING) {
+				if (numberOfLinks == starts.length) {
+					starts = Arrays.copyOf(starts, numberOfLinks * 2);
+					ends = Arrays.copyOf(ends, numberOfLinks * 2);
+					qualities = Arrays.copyOf(qualities, numberOfLinks * 2);
+				}
+				index = numberOfLinks++;
+				linkIndexes.put(key, index);
+				starts[index] = start;
+				ends[index] = end;
+			}
+			qualities[index] = quality;
+
+			/**
+			 * Since the link quality is BIDIRECTIONAL (it's computed from
+			 * the in-bound and out-bound qualities of both motes in the
+			 * link), the value has to be updated also for the link from end
+			 * to start, if a message has already crossed it
+			 */
+
+			index = linkIndexes.get(LinkKey.reverse(key));
+			if (index != LongIntMap.MISSING)
+				qualities[index] = quality;
+		}
+	}
+
+	private void addMote(int mote, boolean producer) {
+		int index = moteIndexes.get(mote);
+		if (index == IntIntMap.MISSING) {
+			if (numberOfMotes == motes.length) {
+				motes = Arrays.copyOf(motes, numberOfMotes * 2);
+				producers = Arrays.copyOf(producers, numberOfMotes * 2);
+			}
+			index = numberOfMotes++;
+			moteIndexes.put(mote, index);
+			motes[index] = mote;
+		}
+		producers[index] |= producer;
+	}
+
+	/**
+	 * Publish a copy of the state as a new snapshot and notify the
+	 * listeners
+	 */
+
+	void publish() {
+		TopologySnapshot published = new TopologySnapshot(++version,
+				Arrays.copyOf(motes, numberOfMotes),
+				Arrays.copyOf(producers, numberOfMotes), numberOfMotes,
+				Arrays.copyOf(starts, numberOfLinks),
+				Arrays.copyOf(ends, numberOfLinks),
+				Arrays.copyOf(qualities, numberOfLinks), numberOfLinks,
+				Arrays.copyOf(paths, numberOfPaths),
+				Arrays.copyOf(pathTimes, numberOfPaths), numberOfPaths);
+		snapshot = published;
+		for (TopologyListener listener : listeners)
+			listener.topologyChanged(published);
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+
+/**
+ * An immutable picture of the topology of the network, published by
+ * TopologyModel: it can be read by any thread without locks. Motes, links
+ * and paths are listed in the order they were first seen; the version grows
+ * with each snapshot published.
+ * 
+ * @author user
+ */
+
+public class TopologySnapshot {
+
+	static final TopologySnapshot EMPTY = new TopologySnapshot(0, new int[0],
+			new boolean[0], 0, new int[0], new int[0], new int[0], 0,
+			new int[0][], new long[0], 0);
+
+	private final long version;
+
+	private final int[] motes;
+	private final boolean[] producers;
+	private final int numberOfMotes;
+
+	private final int[] starts;
+	private final int[] ends;
+	private final int[] qualities;
+	private final int numberOfLinks;
+
+	private final int[][] paths;
+	private final long[] pathTimes;
+	private final int numberOfPaths;
+
+	/**
+	 * Arrays are not copied and may be longer than the number of elements:
+	 * they must not be changed afterwards
+	 */
+
+	TopologySnapshot(long version, int[] motes, boolean[] producers,
+			int numberOfMotes, int[] starts, int[] ends, int[] qualities,
+			int numberOfLinks, int[][] paths, long[] pathTimes,
+			int numberOfPaths) {
+		this.version = version;
+		this.motes = motes;
+		this.producers = producers;
+		this.numberOfMotes = numberOfMotes;
+		this.starts = starts;
+		this.ends = ends;
+		this.qualities = qualities;
+		this.numberOfLinks = numberOfLinks;
+		this.paths = paths;
+		this.pathTimes = pathTimes;
+		this.numberOfPaths = numberOfPaths;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public int getNumberOfMotes() {
+		return numberOfMotes;
+	}
+
+	public int getMote(int i) {
+		return motes[i];
+	}
+
+	public boolean isProducer(int i) {
+		return producers[i];
+	}
+
+	public int getNumberOfLinks() {
+		return numberOfLinks;
+	}
+
+	public int getLinkStart(int i) {
+		return starts[i];
+	}
+
+	public int getLinkEnd(int i) {
+		return ends[i];
+	}
+
+	public int getLinkQuality(int i) {
+		return qualities[i];
+	}
+
+	/**
+	 * Paths from producers to the root: one for each producer, the last
+	 * one received from it
+	 */
+
+	public int getNumberOfPaths() {
+		return numberOfPaths;
+	}
+
+	/**
+	 * IDs of the motes along the i-th path, root excluded: the first one is
+	 * the producer. The array must not be changed
+	 */
+
+	int[] getPath(int i) {
+		return paths[i];
+	}
+
+	public int getPathOrigin(int i) {
+		return paths[i][0];
+	}
+
+	/**
+	 * Time of the last message along the i-th path (ms)
+	 */
+
+	public long getPathTime(int i) {
+		return pathTimes[i];
+	}
+}
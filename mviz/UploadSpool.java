@@ -0,0 +1,491 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+/**
+ * Durable queue of samples waiting to be uploaded on Parse. Samples are
+ * appended as fixed-size binary records to a ring of segment files mapped in
+ * memory, so that they survive outages of the repository and restarts of the
+ * application; the uploader reads them in order and marks them as
+ * acknowledged once Parse has stored them.
+ * 
+ * Each segment file starts with a header:
+ * 
+ * magic (int) | records per segment (int) | generation (long)
+ * 
+ * followed by the records:
+ * 
+ * state (byte) | padding (3) | origin (int) | x (short) | y (short) | z (short) | padding (2) | receive timestamp (long)
+ * 
+ * Generations give the order of the segments in use (0 means free). When
+ * all the records of the oldest segment are acknowledged, the segment is
+ * cleared and reused, so the disk usage is bounded by the number of segments
+ * and appending a sample never allocates.
+ * 
+ * Records that the repository rejects for good are moved to the dead-letter
+ * log "rejected.log" of the spool directory, one line for each record:
+ * 
+ * origin,x,y,z,receive timestamp,reason
+ * 
+ * @author user
+ */
+
+public class UploadSpool {
+
+	static final int MAGIC = 0x4d564953;
+	static final int HEADER_SIZE = 16;
+	static final int RECORD_SIZE = 24;
+
+	/**
+	 * States of a record
+	 */
+
+	static final byte FREE = 0;
+	static final byte PENDING = 1;
+	static final byte ACKED = 2;
+
+	/**
+	 * Offsets of the fields inside a record
+	 */
+
+	static final int STATE = 0;
+	static final int ORIGIN = 4;
+	static final int X = 8;
+	static final int Y = 10;
+	static final int Z = 12;
+	static final int TIMESTAMP = 16;
+
+	private final int recordsPerSegment;
+
+	/**
+	 * Dead-letter log of the records rejected
+	 */
+
+	private final File deadLetter;
+
+	/**
+	 * One mapped buffer for each segment file and the generation of the
+	 * segment (0 if the segment is free)
+	 */
+
+	private final MappedByteBuffer[] segments;
+	private final long[] generations;
+
+	/**
+	 * Slots of the segments in use, from the oldest to the newest: "ring"
+	 * is a circular array starting at "head" and holding "used" slots
+	 */
+
+	private final int[] ring;
+	private int head;
+	private int used;
+	private long nextGeneration = 1;
+
+	/**
+	 * Index of the next record to write in the newest segment
+	 */
+
+	private int writeRecord;
+
+	/**
+	 * First record not yet acknowledged, in the oldest segment
+	 */
+
+	private int ackRecord;
+
+	/**
+	 * Next record to hand to the uploader: segment (w.r.t. "head") and
+	 * record
+	 */
+
+	private int readSegment;
+	private int readRecord;
+
+	/**
+	 * Number of records not yet acknowledged
+	 */
+
+	private int pending;
+
+	/**
+	 * Open the spool in the given directory, creating the segment files if
+	 * needed; records not acknowledged in a previous run are going to be
+	 * uploaded again
+	 */
+
+	public UploadSpool(File directory, int numberOfSegments,
+			int recordsPerSegment) throws IOException {
+		this.recordsPerSegment = recordsPerSegment;
+		deadLetter = new File(directory, "rejected.log");
+		segments = new MappedByteBuffer[numberOfSegments];
+		generations = new long[numberOfSegments];
+		ring = new int[numberOfSegments];
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create spool directory " + directory);
+
+		/**
+		 * Map all the segments
+		 */
+
+		long size = HEADER_SIZE + (long) RECORD_SIZE * recordsPerSegment;
+		for (int i = 0; i < numberOfSegments; i++) {
+			RandomAccessFile file = new RandomAccessFile(new File(directory,
+					"spool-" + i + ".seg"), "rw");
+			try {
+				boolean valid = file.length() == size;
+				file.setLength(size);
+				segments[i] = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+				if (!valid || segments[i].getInt(0) != MAGIC
+						|| segments[i].getInt(4) != recordsPerSegment) {
+
+					/**
+					 * New file or file written with a different layout:
+					 * start from an empty segment
+					 */
+
+					clear(i);
+				}
+				generations[i] = segments[i].getLong(8);
+			} finally {
+
+				/**
+				 * The mapping stays valid after the file is closed
+				 */
+
+				file.close();
+			}
+		}
+
+		/**
+		 * Sort the segments in use by generation (there are only a few of
+		 * them, insertion sort is fine)
+		 */
+
+		for (int i = 0; i < numberOfSegments; i++) {
+			if (generations[i] == 0)
+				continue;
+			int j = used++;
+			while (j > 0 && generations[ring[j - 1]] > generations[i]) {
+				ring[j] = ring[j - 1];
+				j--;
+			}
+			ring[j] = i;
+			nextGeneration = Math.max(nextGeneration, generations[i] + 1);
+		}
+
+		/**
+		 * The next record to write follows the last record written in the
+		 * newest segment; count records still to be uploaded
+		 */
+
+		if (used > 0) {
+			int last = ring[used - 1];
+			for (int r = recordsPerSegment; r > 0; r--) {
+				if (state(last, r - 1) != FREE) {
+					writeRecord = r;
+					break;
+				}
+			}
+			for (int s = 0; s < used; s++) {
+				int end = s == used - 1 ? writeRecord : recordsPerSegment;
+				for (int r = 0; r < end; r++) {
+					if (state(ring[s], r) == PENDING)
+						pending++;
+				}
+			}
+		}
+
+		/**
+		 * Drop segments already completely uploaded
+		 */
+
+		advanceAck();
+		rewind();
+	}
+
+	/**
+	 * Append a sample; this never blocks and never allocates. If all the
+	 * segments are full of records not yet uploaded, the sample is discarded
+	 * and false is returned
+	 */
+
+	public synchronized boolean append(int origin, short x, short y, short z,
+			long timestamp) {
+		if (used == 0 || writeRecord == recordsPerSegment) {
+			if (used == ring.length)
+				return false;
+
+			/**
+			 * Take a free segment and make it the newest one
+			 */
+
+			int slot = 0;
+			while (generations[slot] != 0)
+				slot++;
+			generations[slot] = nextGeneration++;
+			segments[slot].putLong(8, generations[slot]);
+			ring[(head + used) % ring.length] = slot;
+			used++;
+			writeRecord = 0;
+		}
+		MappedByteBuffer segment = segments[ring[(head + used - 1) % ring.length]];
+		int offset = HEADER_SIZE + writeRecord * RECORD_SIZE;
+		segment.putInt(offset + ORIGIN, origin);
+		segment.putShort(offset + X, x);
+		segment.putShort(offset + Y, y);
+		segment.putShort(offset + Z, z);
+		segment.putLong(offset + TIMESTAMP, timestamp);
+
+		/**
+		 * The state is written last, so that a record is never seen as
+		 * pending before its fields are complete
+		 */
+
+		segment.put(offset + STATE, PENDING);
+		writeRecord++;
+		pending++;
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Number of records after the read position (including records already
+	 * acknowledged out of order, which are skipped by "read")
+	 */
+
+	private int available() {
+		if (used == 0)
+			return 0;
+		return (used - 1 - readSegment) * recordsPerSegment + writeRecord
+				- readRecord;
+	}
+
+	/**
+	 * Wait until at least "count" records can be read or until the timeout
+	 * expires; returns the number of records that can be read
+	 */
+
+	public synchronized int await(int count, long timeoutMillis)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		if (deadline < 0)
+			deadline = Long.MAX_VALUE;
+		int available = available();
+		while (available < count) {
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0)
+				break;
+			wait(left);
+			available = available();
+		}
+		return available;
+	}
+
+	/**
+	 * Copy at most "max" pending records into the given arrays, in the order
+	 * they were appended, and move the read position after them. The
+	 * position of each record is returned in "positions" and has to be
+	 * passed to "ack" once the record is uploaded
+	 */
+
+	public synchronized int read(int max, int[] origin, short[] x, short[] y,
+			short[] z, long[] timestamp, long[] positions) {
+		int n = 0;
+		while (n < max && available() > 0) {
+			if (readRecord == recordsPerSegment) {
+				readSegment++;
+				readRecord = 0;
+			}
+			int slot = ring[(head + readSegment) % ring.length];
+			MappedByteBuffer segment = segments[slot];
+			int offset = HEADER_SIZE + readRecord * RECORD_SIZE;
+			if (segment.get(offset + STATE) == PENDING) {
+				origin[n] = segment.getInt(offset + ORIGIN);
+				x[n] = segment.getShort(offset + X);
+				y[n] = segment.getShort(offset + Y);
+				z[n] = segment.getShort(offset + Z);
+				timestamp[n] = segment.getLong(offset + TIMESTAMP);
+				positions[n] = (generations[slot] << 32) | readRecord;
+				n++;
+			}
+			readRecord++;
+		}
+		return n;
+	}
+
+	/**
+	 * Mark the records at the given positions as uploaded; segments whose
+	 * records are all acknowledged are recycled
+	 */
+
+	public synchronized void ack(long[] positions, int count) {
+		for (int i = 0; i < count; i++) {
+			int slot = slotOf(positions[i]);
+			if (slot < 0)
+				continue;
+			int offset = HEADER_SIZE + (int) positions[i] * RECORD_SIZE;
+			if (segments[slot].get(offset + STATE) == PENDING) {
+				segments[slot].put(offset + STATE, ACKED);
+				pending--;
+			}
+		}
+		advanceAck();
+	}
+
+	/**
+	 * Append the records at the given positions, rejected for good by the
+	 * repository for the given reasons, to the dead-letter log and write it
+	 * to the disk, then mark them as done like "ack" does. If the log can't
+	 * be written the records are left pending
+	 */
+
+	public synchronized void reject(long[] positions, String[] reasons,
+			int count) throws IOException {
+		FileOutputStream file = new FileOutputStream(deadLetter, true);
+		try {
+			Writer log = new BufferedWriter(new OutputStreamWriter(file, "UTF-8"));
+			for (int i = 0; i < count; i++) {
+				int slot = slotOf(positions[i]);
+				if (slot < 0)
+					continue;
+				MappedByteBuffer segment = segments[slot];
+				int offset = HEADER_SIZE + (int) positions[i] * RECORD_SIZE;
+				if (segment.get(offset + STATE) != PENDING)
+					continue;
+				log.write(segment.getInt(offset + ORIGIN) + ","
+						+ segment.getShort(offset + X) + ","
+						+ segment.getShort(offset + Y) + ","
+						+ segment.getShort(offset + Z) + ","
+						+ segment.getLong(offset + TIMESTAMP) + ","
+						+ String.valueOf(reasons[i]).replace('\n', ' ').replace('\r', ' ')
+						+ "\n");
+			}
+			log.flush();
+			file.getFD().sync();
+		} finally {
+			file.close();
+		}
+		ack(positions, count);
+	}
+
+	/**
+	 * Slot of the segment of a record given its position, -1 if the
+	 * segment has been recycled
+	 */
+
+	private int slotOf(long position) {
+		long generation = position >>> 32;
+		for (int s = 0; s < used; s++) {
+			int slot = ring[(head + s) % ring.length];
+			if (generations[slot] == generation)
+				return slot;
+		}
+		return -1;
+	}
+
+	/**
+	 * Move the read position back to the first record not acknowledged, so
+	 * that records whose upload failed are read again
+	 */
+
+	public synchronized void rewind() {
+		readSegment = 0;
+		readRecord = ackRecord;
+	}
+
+	/**
+	 * Number of records not yet acknowledged
+	 */
+
+	public synchronized int pending() {
+		return pending;
+	}
+
+	/**
+	 * Write the content of the segments to the disk
+	 */
+
+	public synchronized void flush() {
+		for (int i = 0; i < segments.length; i++)
+			segments[i].force();
+	}
+
+	/**
+	 * Move the acknowledge position after the records already uploaded and
+	 * recycle the oldest segments if they are done
+	 */
+
+	private void advanceAck() {
+		while (used > 0) {
+			int slot = ring[head];
+			int end = used == 1 ? writeRecord : recordsPerSegment;
+			while (ackRecord < end && state(slot, ackRecord) != PENDING)
+				ackRecord++;
+			if (ackRecord < recordsPerSegment)
+				return;
+
+			/**
+			 * The whole segment has been uploaded: make it free again
+			 */
+
+			clear(slot);
+			generations[slot] = 0;
+			head = (head + 1) % ring.length;
+			used--;
+			ackRecord = 0;
+			if (readSegment > 0) {
+				readSegment--;
+			} else {
+				readRecord = 0;
+			}
+		}
+	}
+
+	private byte state(int slot, int record) {
+		return segments[slot].get(HEADER_SIZE + record * RECORD_SIZE + STATE);
+	}
+
+	/**
+	 * Reset the header and the states of the records of a segment
+	 */
+
+	private void clear(int slot) {
+		MappedByteBuffer segment = segments[slot];
+		segment.putInt(0, MAGIC);
+		segment.putInt(4, recordsPerSegment);
+		segment.putLong(8, 0);
+		for (int r = 0; r < recordsPerSegment; r++)
+			segment.put(HEADER_SIZE + r * RECORD_SIZE + STATE, FREE);
+	}
+}
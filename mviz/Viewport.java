@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.awt.*;
+
+/**
+ * The part of the network shown on the canvas: the canvas shows the
+ * network from the origin (in the coordinates of motes) on, enlarged by the
+ * zoom, so that a point of the network at (x, y) is shown on the canvas at
+ * ((x - originX) * zoom, (y - originY) * zoom).
+ * 
+ * @author user
+ */
+
+public class Viewport {
+
+	/**
+	 * Range of the zoom
+	 */
+
+	static final double MIN_ZOOM = 0.1;
+	static final double MAX_ZOOM = 4;
+
+	private double zoom = 1;
+	private double originX;
+	private double originY;
+
+	public double getZoom() {
+		return zoom;
+	}
+
+	/**
+	 * Change the zoom by the given factor, keeping the point of the
+	 * network shown at (x, y) on the canvas where it is
+	 */
+
+	public void zoom(int x, int y, double factor) {
+		double newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+		originX += x / zoom - x / newZoom;
+		originY += y / zoom - y / newZoom;
+		zoom = newZoom;
+	}
+
+	/**
+	 * Move the network shown by dx, dy pixels of the canvas
+	 */
+
+	public void pan(int dx, int dy) {
+		originX -= dx / zoom;
+		originY -= dy / zoom;
+	}
+
+	/**
+	 * Show all the given area of the network on a canvas of width x height,
+	 * with a zoom of at most 1
+	 */
+
+	public void fit(Rectangle area, int width, int height) {
+		zoom = Math.max(MIN_ZOOM, Math.min(1, Math.min(
+				(double) width / area.width, (double) height / area.height)));
+		originX = area.getCenterX() - width / zoom / 2;
+		originY = area.getCenterY() - height / zoom / 2;
+	}
+
+	/**
+	 * Where the given point of the network is shown on the canvas
+	 */
+
+	public int toCanvasX(double x) {
+		return (int) Math.round((x - originX) * zoom);
+	}
+
+	public int toCanvasY(double y) {
+		return (int) Math.round((y - originY) * zoom);
+	}
+
+	/**
+	 * The rectangle of the canvas covering the given area of the network
+	 */
+
+	public Rectangle toCanvas(Rectangle area) {
+		int x = (int) Math.floor((area.x - originX) * zoom);
+		int y = (int) Math.floor((area.y - originY) * zoom);
+		return new Rectangle(x, y,
+				(int) Math.ceil((area.x + area.width - originX) * zoom) - x,
+				(int) Math.ceil((area.y + area.height - originY) * zoom) - y);
+	}
+
+	/**
+	 * The area of the network covering the given rectangle of the canvas
+	 */
+
+	public Rectangle toNetwork(Rectangle area) {
+		int x = (int) Math.floor(originX + area.x / zoom);
+		int y = (int) Math.floor(originY + area.y / zoom);
+		return new Rectangle(x, y,
+				(int) Math.ceil(originX + (area.x + area.width) / zoom) - x,
+				(int) Math.ceil(originY + (area.y + area.height) / zoom) - y);
+	}
+
+	/**
+	 * Have the graphics draw in the coordinates of the network
+	 */
+
+	public void apply(Graphics2D g) {
+		g.scale(zoom, zoom);
+		g.translate(-originX, -originY);
+	}
+}
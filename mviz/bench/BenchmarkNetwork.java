@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.io.*;
+
+import net.tinyos.util.*;
+import node.SensorsDataMsg;
+
+/**
+ * The traffic used by the benchmarks: packets read from a NetworkSimulator
+ * with the given number of motes (three producers out of four) and max
+ * number of hops, together with the messages and the deltas of the
+ * topology they carry. The same seed is always used, so runs can be
+ * compared.
+ * 
+ * @author user
+ */
+
+final class BenchmarkNetwork {
+
+	static final int ROOT_MOTE = 50;
+
+	/**
+	 * Number of packets, a power of 2 so that the benchmarks can cycle
+	 * through them with a mask
+	 */
+
+	static final int PACKETS = 16384;
+
+	final byte[][] packets = new byte[PACKETS][];
+	final SensorsDataMsg[] messages = new SensorsDataMsg[PACKETS];
+	final TopologyDelta[] deltas = new TopologyDelta[PACKETS];
+
+	BenchmarkNetwork(int motes, int hops) throws IOException {
+		int producers = Math.max(1, motes * 3 / 4);
+		NetworkSimulator simulator = new NetworkSimulator(NetworkSimulator.PREFIX
+				+ "producers=" + producers + ",forwarders=" + (motes - producers)
+				+ ",hops=" + hops + ",rate=0,churn=0,seed=1", ROOT_MOTE);
+		simulator.open(PrintStreamMessenger.err);
+		AccelerationMsgView view = new AccelerationMsgView();
+		for (int i = 0; i < PACKETS; i++) {
+			packets[i] = simulator.readPacket();
+			messages[i] = new SensorsDataMsg(packets[i],
+					AccelerationMsgView.SERIAL_HEADER_SIZE);
+			view.wrapSerialPacket(packets[i], 0, packets[i].length);
+			deltas[i] = MessageInput.toDelta(view, ROOT_MOTE, i);
+		}
+		simulator.close();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.io.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of a message received from the source, from the bytes of the packet
+ * to the delta handed to the model of the topology: through MoteIF
+ * (messageReceived) and through NioForwarderClient, which delivers packets
+ * in batches (packetsReceived).
+ * 
+ * @author user
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class IngestBenchmark {
+
+	/**
+	 * Packets in a batch delivered by NioForwarderClient
+	 */
+
+	private static final int BATCH = 64;
+
+	@Param({ "10", "100", "1000", "5000" })
+	int motes;
+
+	@Param({ "1", "2", "4" })
+	int hops;
+
+	private BenchmarkNetwork network;
+	private TopologyModel topology;
+	private MessageInput input;
+	private int next;
+
+	private byte[] batch;
+	private int[] offsets = new int[BATCH];
+	private int[] lengths = new int[BATCH];
+
+	@Setup
+	public void setUp() throws IOException {
+		network = new BenchmarkNetwork(motes, hops);
+
+		/**
+		 * The model runs as in the application; a client of a serial
+		 * forwarder which is never started stands for the source
+		 */
+
+		topology = new TopologyModel(TopologyModel.DEFAULT_FRAME_INTERVAL);
+		topology.start();
+		input = new MessageInput(NioForwarderClient.PREFIX + "127.0.0.1:9002",
+				BenchmarkNetwork.ROOT_MOTE, topology, null);
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		for (int i = 0; i < BATCH; i++) {
+			offsets[i] = buffer.size();
+			lengths[i] = network.packets[i].length;
+			buffer.write(network.packets[i]);
+		}
+		batch = buffer.toByteArray();
+	}
+
+	@TearDown
+	public void tearDown() {
+		topology.stop();
+	}
+
+	@Benchmark
+	public void messageReceived() {
+		input.messageReceived(0, network.messages[next++ & (BenchmarkNetwork.PACKETS - 1)]);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void packetsReceived() {
+		input.packetsReceived(BenchmarkNetwork.ROOT_MOTE, batch, offsets, lengths, BATCH);
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost, per received message, of looking up motes and links in the maps
+ * keyed by boxed IDs and by "start->end" strings used before, and in the
+ * primitive-keyed maps (IntObjectMap, LongObjectMap) used now.
+ * 
+ * Each message follows a random path of NUMBER_OF_MOTES hops among the
+ * motes; for each hop the start and end motes are looked up, then the link
+ * and the link in the opposite direction (as done by the topology model and
+ * the GUI). IDs start above the range cached by Integer.valueOf(), so
+ * boxing them allocates as it did with real motes.
+ * 
+ * @author user
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MapsBenchmark {
+
+	private static final int HOPS = AccelerationMsgView.NUMBER_OF_MOTES;
+
+	@Param({ "10", "100", "1000", "5000" })
+	int motes;
+
+	private int[][] paths;
+	private HashMap<Integer, Object> boxedMotes;
+	private HashMap<String, Object> stringLinks;
+	private IntObjectMap<Object> primitiveMotes;
+	private LongObjectMap<Object> primitiveLinks;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		Random rand = new Random(1);
+		int[] ids = new int[motes];
+		for (int i = 0; i < motes; i++)
+			ids[i] = 1000 + i;
+		paths = new int[1024][HOPS + 1];
+		for (int[] path : paths)
+			for (int i = 0; i < path.length; i++)
+				path[i] = ids[rand.nextInt(motes)];
+
+		/**
+		 * Both kinds of maps hold all the motes and all the links crossed
+		 * by the paths
+		 */
+
+		boxedMotes = new HashMap<Integer, Object>();
+		stringLinks = new HashMap<String, Object>();
+		primitiveMotes = new IntObjectMap<Object>();
+		primitiveLinks = new LongObjectMap<Object>();
+		for (int id : ids) {
+			boxedMotes.put(id, Integer.toString(id));
+			primitiveMotes.put(id, Integer.toString(id));
+		}
+		for (int[] path : paths) {
+			for (int i = 0; i < HOPS; i++) {
+				stringLinks.put(path[i] + "->" + path[i + 1], path);
+				primitiveLinks.put(LinkKey.of(path[i], path[i + 1]), path);
+			}
+		}
+	}
+
+	@Benchmark
+	public int boxedKeys() {
+		int[] path = paths[next++ & (paths.length - 1)];
+		int found = 0;
+		for (int i = 0; i < HOPS; i++) {
+			if (boxedMotes.get(Integer.valueOf(path[i])) != null)
+				found++;
+			if (boxedMotes.get(Integer.valueOf(path[i + 1])) != null)
+				found++;
+			if (stringLinks.get(path[i] + "->" + path[i + 1]) != null)
+				found++;
+			if (stringLinks.get(path[i + 1] + "->" + path[i]) != null)
+				found++;
+		}
+		return found;
+	}
+
+	@Benchmark
+	public int primitiveKeys() {
+		int[] path = paths[next++ & (paths.length - 1)];
+		int found = 0;
+		for (int i = 0; i < HOPS; i++) {
+			if (primitiveMotes.get(path[i]) != null)
+				found++;
+			if (primitiveMotes.get(path[i + 1]) != null)
+				found++;
+			long key = LinkKey.of(path[i], path[i + 1]);
+			if (primitiveLinks.get(key) != null)
+				found++;
+			if (primitiveLinks.get(LinkKey.reverse(key)) != null)
+				found++;
+		}
+		return found;
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of the work done by the GUI on the event dispatch thread: bringing
+ * the GUI up to date with a new snapshot of the topology, drawing the
+ * canvas, painting all of it (the layer of motes and the links over it) and
+ * updating a row of the Paths Table. AWT runs headless, so the canvas is
+ * painted on an offscreen image; each operation is run on the event
+ * dispatch thread as in the application, so its time includes the hand
+ * off to that thread.
+ * 
+ * The images are read from the folder given by the property "mviz.images"
+ * (by default "../images/", the one of mviz when run from this folder).
+ * 
+ * @author user
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RenderBenchmark {
+
+	/**
+	 * Rows of the Paths Table updated in a single hand off to the event
+	 * dispatch thread
+	 */
+
+	private static final int UPDATES = 64;
+
+	@Param({ "10", "100", "1000", "5000" })
+	int motes;
+
+	@Param({ "1", "2", "4" })
+	int hops;
+
+	@Param({ "600" })
+	int canvasSize;
+
+	private BenchmarkNetwork network;
+	private TopologyModel topology;
+	private DDocument document;
+	private int next;
+	private long time = BenchmarkNetwork.PACKETS;
+	private BufferedImage screen;
+
+	private final Runnable refresh = new Runnable() {
+		public void run() {
+			document.refreshTopology();
+		}
+	};
+
+	private final Runnable redraw = new Runnable() {
+		public void run() {
+			document.redrawCanvas();
+		}
+	};
+
+	private final Runnable paint = new Runnable() {
+		public void run() {
+			Graphics g = screen.getGraphics();
+			document.canvas.paint(g);
+			g.dispose();
+		}
+	};
+
+	private final Runnable updatePaths = new Runnable() {
+		public void run() {
+			for (int i = 0; i < UPDATES; i++) {
+				document.pathsTableModel.updatePath(
+						network.deltas[next++ & (BenchmarkNetwork.PACKETS - 1)].getPath(),
+						time++);
+			}
+			document.pathsTableModel.flushChanges();
+		}
+	};
+
+	@Setup
+	public void setUp() throws Exception {
+		network = new BenchmarkNetwork(motes, hops);
+		topology = new TopologyModel(TopologyModel.DEFAULT_FRAME_INTERVAL);
+		for (TopologyDelta delta : network.deltas)
+			topology.apply(delta);
+
+		final String images = System.getProperty("mviz.images", "../images/");
+		EventQueue.invokeAndWait(new Runnable() {
+			public void run() {
+				document = new DDocument(canvasSize, canvasSize,
+						BenchmarkNetwork.ROOT_MOTE, images, "mote.gif",
+						"tmote_sky.png", "http://localhost/", "http://localhost/",
+						"", "");
+				document.canvas.setSize(canvasSize, canvasSize);
+				screen = new BufferedImage(canvasSize, canvasSize,
+						BufferedImage.TYPE_INT_RGB);
+			}
+		});
+		document.setTopology(topology);
+
+		/**
+		 * Create all the motes, links and paths
+		 */
+
+		topology.publish();
+		EventQueue.invokeAndWait(refresh);
+	}
+
+	@TearDown
+	public void tearDown() {
+		topology.removeListener(document);
+	}
+
+	@Benchmark
+	public void refreshTopology() throws InterruptedException,
+			InvocationTargetException {
+		topology.apply(network.deltas[next++ & (BenchmarkNetwork.PACKETS - 1)]);
+		topology.publish();
+		EventQueue.invokeAndWait(refresh);
+	}
+
+	@Benchmark
+	public void redrawCanvas() throws InterruptedException,
+			InvocationTargetException {
+		EventQueue.invokeAndWait(redraw);
+	}
+
+	@Benchmark
+	public void paintCanvas() throws InterruptedException,
+			InvocationTargetException {
+		EventQueue.invokeAndWait(paint);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(UPDATES)
+	public void updatePath() throws InterruptedException,
+			InvocationTargetException {
+		EventQueue.invokeAndWait(updatePaths);
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.io.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of a frame of the model of the topology: the deltas of the messages
+ * received during the frame are applied and a new snapshot is published.
+ * The number of messages per frame is the rate of messages times the
+ * length of a frame (DEFAULT_FRAME_INTERVAL).
+ * 
+ * @author user
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TopologyBenchmark {
+
+	@Param({ "10", "100", "1000", "5000" })
+	int motes;
+
+	@Param({ "1", "2", "4" })
+	int hops;
+
+	@Param({ "1", "10", "100" })
+	int messagesPerFrame;
+
+	private BenchmarkNetwork network;
+	private TopologyModel topology;
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		network = new BenchmarkNetwork(motes, hops);
+		topology = new TopologyModel(TopologyModel.DEFAULT_FRAME_INTERVAL);
+		for (TopologyDelta delta : network.deltas)
+			topology.apply(delta);
+		topology.publish();
+	}
+
+	@Benchmark
+	public TopologySnapshot frame() {
+		for (int i = 0; i < messagesPerFrame; i++)
+			topology.apply(network.deltas[next++ & (BenchmarkNetwork.PACKETS - 1)]);
+		topology.publish();
+		return topology.getSnapshot();
+	}
+}
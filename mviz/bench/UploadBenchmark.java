@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2006 Stanford University.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ * - Neither the name of the Stanford University nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL STANFORD
+ * UNIVERSITY OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.tinyos.mviz;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of the upload stage without the network: appending a value to the
+ * spool (with the values read and acknowledged a batch at a time, as the
+ * uploader does) and building the JSON body of a request.
+ * 
+ * @author user
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UploadBenchmark {
+
+	@Param({ "1", "20", "50" })
+	int batchSize;
+
+	private File directory;
+	private UploadSpool spool;
+	private int[] origin;
+	private short[] x, y, z;
+	private long[] timestamp;
+	private long[] positions;
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = File.createTempFile("spool", "");
+		directory.delete();
+		spool = new UploadSpool(directory, 4, 4096);
+
+		origin = new int[batchSize];
+		x = new short[batchSize];
+		y = new short[batchSize];
+		z = new short[batchSize];
+		timestamp = new long[batchSize];
+		positions = new long[batchSize];
+		Random rand = new Random(1);
+		for (int i = 0; i < batchSize; i++) {
+			origin[i] = 1 + rand.nextInt(100);
+			x[i] = (short) (rand.nextInt(20) - 10);
+			y[i] = (short) (rand.nextInt(20) - 10);
+			z[i] = (short) (256 + rand.nextInt(20) - 10);
+			timestamp[i] = System.currentTimeMillis() + i;
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+		directory.delete();
+	}
+
+	@Benchmark
+	public boolean spoolAppend() {
+		int i = next++ % batchSize;
+		boolean appended = spool.append(origin[i], x[i], y[i], z[i], timestamp[i]);
+		if (spool.pending() >= batchSize) {
+			int read = spool.read(batchSize, origin, x, y, z, timestamp, positions);
+			spool.ack(positions, read);
+		}
+		return appended;
+	}
+
+	@Benchmark
+	public String requestBody() {
+		StringBuilder body = new StringBuilder(96 * batchSize);
+		ParseUploader.appendRequestBody(body, "/1/classes/Acceleration",
+				batchSize, x, y, z, origin, timestamp);
+		return body.toString();
+	}
+}